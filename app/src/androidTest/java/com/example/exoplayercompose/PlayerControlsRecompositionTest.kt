@@ -0,0 +1,85 @@
+package com.example.exoplayercompose
+
+import androidx.compose.runtime.CompositionLocalProvider
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.test.junit4.createComposeRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.example.exoplayercompose.model.PlayerState
+import com.example.exoplayercompose.ui.LocalRecompositionCounter
+import com.example.exoplayercompose.ui.RecompositionCounter
+import com.google.android.exoplayer2.Player
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Counts the recompositions of the real [PlayerControls], [CentreControls] and [BottomControls]
+ * while a sliced [PlayerState] is updated.
+ */
+@RunWith(AndroidJUnit4::class)
+class PlayerControlsRecompositionTest {
+
+    @get:Rule
+    val composeTestRule = createComposeRule()
+
+    private val counter = RecompositionCounter()
+    private val playerState = PlayerState().apply {
+        playbackState = Player.STATE_READY
+        playWhenReady = true
+        totalDuration = DURATION_MS
+    }
+
+    @Before
+    fun setUp() {
+        composeTestRule.setContent {
+            CompositionLocalProvider(LocalRecompositionCounter provides counter) {
+                PlayerControls(playerState, {}, {}, {}, {}, Modifier)
+            }
+        }
+        composeTestRule.runOnIdle { counter.reset() }
+    }
+
+    @Test
+    fun positionUpdates_onlyRecomposeBottomControls() {
+        repeat(UPDATE_COUNT) { i ->
+            composeTestRule.runOnIdle { playerState.updateProgress((i + 1) * 1000L, 50, DURATION_MS) }
+        }
+        composeTestRule.waitForIdle()
+
+        assertEquals(0, counter["PlayerControls"])
+        assertEquals(0, counter["CentreControls"])
+        assertEquals(UPDATE_COUNT, counter["BottomControls"])
+    }
+
+    @Test
+    fun playbackStateChange_onlyRecomposesCentreControls() {
+        composeTestRule.runOnIdle { playerState.playWhenReady = false }
+        composeTestRule.waitForIdle()
+
+        assertEquals(0, counter["PlayerControls"])
+        assertEquals(1, counter["CentreControls"])
+        assertEquals(0, counter["BottomControls"])
+    }
+
+    @Test
+    fun unchangedValues_dontRecompose() {
+        repeat(UPDATE_COUNT) {
+            composeTestRule.runOnIdle {
+                playerState.updateProgress(0, 0, DURATION_MS)
+                playerState.playbackState = Player.STATE_READY
+            }
+        }
+        composeTestRule.waitForIdle()
+
+        assertEquals(0, counter["PlayerControls"])
+        assertEquals(0, counter["CentreControls"])
+        assertEquals(0, counter["BottomControls"])
+    }
+
+    private companion object {
+        const val UPDATE_COUNT = 20
+        const val DURATION_MS = 60_000L
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.exoplayercompose.util
+
+import android.net.Uri
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.database.StandaloneDatabaseProvider
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor
+import com.google.android.exoplayer2.upstream.cache.SimpleCache
+import com.google.android.exoplayer2.util.Util
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.Random
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * Reads through [ParallelRangeDataSource] from a local HTTP server that can be told to honor or
+ * ignore Range requests.
+ */
+@RunWith(AndroidJUnit4::class)
+class ParallelRangeDataSourceTest {
+
+    private val content = ByteArray(3 * 1024 * 1024 + 123).also { Random(0).nextBytes(it) }
+    private lateinit var server : LocalHttpServer
+    private lateinit var cacheDir : File
+    private var cache : SimpleCache? = null
+
+    @Before
+    fun setUp() {
+        server = LocalHttpServer(content)
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        cacheDir = Util.createTempDirectory(context, "ParallelRangeDataSourceTest")
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        cache?.release()
+        cacheDir.deleteRecursively()
+    }
+
+    @Test
+    fun rangeSupported_readsWholeResourceInParallel() {
+        val dataSource = newFactory().createDataSource()
+
+        val length = dataSource.open(DataSpec(server.uri))
+        // Closing the source at the end of the read resets the mode.
+        val isParallel = dataSource.isParallel
+        val data = readToEnd(dataSource)
+
+        assertTrue(isParallel)
+        assertEquals(content.size.toLong(), length)
+        assertArrayEquals(content, data)
+        assertTrue(server.rangeRequestCount.get() > 1)
+    }
+
+    @Test
+    fun rangeSupported_readsSubrange() {
+        val dataSource = newFactory().createDataSource()
+
+        dataSource.open(DataSpec(server.uri, 1000, 1024 * 1024L))
+        val data = readToEnd(dataSource)
+
+        assertArrayEquals(content.copyOfRange(1000, 1000 + 1024 * 1024), data)
+    }
+
+    @Test
+    fun rangeIgnored_fallsBackToSingleStream() {
+        server.supportsRange = false
+        val dataSource = newFactory().createDataSource()
+
+        dataSource.open(DataSpec(server.uri))
+        val isParallel = dataSource.isParallel
+        val data = readToEnd(dataSource)
+
+        assertFalse(isParallel)
+        assertArrayEquals(content, data)
+    }
+
+    @Test
+    fun closeMidRead_cancelsChunksAndCanBeReopened() {
+        val dataSource = newFactory().createDataSource()
+
+        dataSource.open(DataSpec(server.uri))
+        val buffer = ByteArray(64 * 1024)
+        assertTrue(dataSource.read(buffer, 0, buffer.size) > 0)
+        dataSource.close()
+        dataSource.open(DataSpec(server.uri))
+        val data = readToEnd(dataSource)
+
+        assertArrayEquals(content, data)
+    }
+
+    @Test
+    fun cachedResource_readsInParallelFromCacheWithoutNetwork() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val simpleCache = SimpleCache(cacheDir, NoOpCacheEvictor(), StandaloneDatabaseProvider(context))
+        cache = simpleCache
+        val cacheDataSourceFactory = CacheDataSource.Factory()
+            .setCache(simpleCache)
+            .setUpstreamDataSourceFactory(DefaultHttpDataSource.Factory())
+        // An unbounded read stores the whole resource and its length in the cache.
+        val warmUpSource = cacheDataSourceFactory.createDataSource()
+        warmUpSource.open(DataSpec(server.uri))
+        readToEnd(warmUpSource)
+        server.close()
+        val dataSource = newFactory(cacheDataSourceFactory).createDataSource()
+
+        val length = dataSource.open(DataSpec(server.uri))
+        val isParallel = dataSource.isParallel
+        val data = readToEnd(dataSource)
+
+        assertTrue(isParallel)
+        assertEquals(content.size.toLong(), length)
+        assertArrayEquals(content, data)
+    }
+
+    private fun newFactory(upstreamFactory : DataSource.Factory = DefaultHttpDataSource.Factory()) =
+        ParallelRangeDataSource.Factory(upstreamFactory)
+            .setChunkSize(256 * 1024)
+            .setParallelism(4)
+
+    private fun readToEnd(dataSource : DataSource) : ByteArray {
+        val output = ByteArrayOutputStream()
+        val buffer = ByteArray(16 * 1024)
+        try {
+            while (true) {
+                val bytesRead = dataSource.read(buffer, 0, buffer.size)
+                if (bytesRead == C.RESULT_END_OF_INPUT) {
+                    break
+                }
+                output.write(buffer, 0, bytesRead)
+            }
+        } finally {
+            dataSource.close()
+        }
+        return output.toByteArray()
+    }
+
+    /** A minimal HTTP/1.0 server for a single resource, one thread per connection. */
+    private class LocalHttpServer(private val content : ByteArray) {
+        private val serverSocket = ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))
+        val uri : Uri = Uri.parse("http://127.0.0.1:${serverSocket.localPort}/video.mp4")
+        val rangeRequestCount = AtomicInteger()
+        @Volatile var supportsRange = true
+
+        init {
+            thread(name = "LocalHttpServer") {
+                while (!serverSocket.isClosed) {
+                    val socket = try {
+                        serverSocket.accept()
+                    } catch (e : Exception) {
+                        break
+                    }
+                    thread { socket.use { serve(it) } }
+                }
+            }
+        }
+
+        private fun serve(socket : Socket) {
+            val reader = socket.getInputStream().bufferedReader()
+            var range : String? = null
+            while (true) {
+                val line = reader.readLine() ?: return
+                if (line.isEmpty()) {
+                    break
+                }
+                if (line.startsWith("Range:", ignoreCase = true)) {
+                    range = line.substringAfter(':').trim()
+                }
+            }
+            var start = 0
+            var end = content.size - 1
+            val partial = supportsRange && range != null
+            if (partial) {
+                rangeRequestCount.incrementAndGet()
+                val bounds = range!!.removePrefix("bytes=").split('-')
+                start = bounds[0].toInt()
+                if (bounds[1].isNotEmpty()) {
+                    end = minOf(end, bounds[1].toInt())
+                }
+            }
+            val header = StringBuilder()
+                .append(if (partial) "HTTP/1.0 206 Partial Content\r\n" else "HTTP/1.0 200 OK\r\n")
+                .append("Content-Length: ${end - start + 1}\r\n")
+                .apply { if (partial) append("Content-Range: bytes $start-$end/${content.size}\r\n") }
+                .append("\r\n")
+            val output = socket.getOutputStream()
+            try {
+                output.write(header.toString().toByteArray())
+                output.write(content, start, end - start + 1)
+                output.flush()
+            } catch (e : Exception) {
+                // The client closed the connection.
+            }
+        }
+
+        fun close() {
+            serverSocket.close()
+        }
+    }
+}
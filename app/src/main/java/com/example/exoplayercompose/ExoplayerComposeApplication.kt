@@ -0,0 +1,19 @@
+package com.example.exoplayercompose
+
+import android.app.Application
+import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.launch
+
+class ExoplayerComposeApplication : Application() {
+    override fun onCreate() {
+        super.onCreate()
+        val warmUp = PlayerWarmUp.start(this)
+        MainScope().launch {
+            // A failed warm-up is logged by PlayerWarmUp and retried on demand; the pool then
+            // builds players as they are acquired.
+            val result = runCatching { warmUp.await() }.getOrNull() ?: return@launch
+            // Players are built on the main looper, once the bandwidth history has been read.
+            PlayerPool.prewarm(this@ExoplayerComposeApplication, result.bandwidthMeter)
+        }
+    }
+}
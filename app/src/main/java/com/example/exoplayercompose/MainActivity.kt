@@ -5,7 +5,9 @@ package com.example.exoplayercompose
 import android.content.Context
 import android.net.Uri
 import android.os.Bundle
+import android.os.SystemClock
 import android.util.Log
+import android.view.Choreographer
 import android.view.LayoutInflater
 import android.view.View
 import androidx.activity.ComponentActivity
@@ -14,45 +16,50 @@ import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
 import androidx.compose.material.*
 import androidx.compose.runtime.*
-import androidx.compose.runtime.State
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.layout.onSizeChanged
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.platform.LocalLifecycleOwner
 import androidx.compose.ui.tooling.preview.Preview
+import androidx.compose.ui.unit.IntSize
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.viewinterop.AndroidView
+import androidx.lifecycle.DefaultLifecycleObserver
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleEventObserver
+import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.ViewModelProvider
 import com.example.exoplayercompose.model.PlayerState
+import com.example.exoplayercompose.player.MediaPrefetcher
+import com.example.exoplayercompose.player.ScrubSeeker
+import com.example.exoplayercompose.ui.CountRecompositions
 import com.example.exoplayercompose.ui.theme.ExoplayerComposeTheme
+import com.example.exoplayercompose.util.HttpStack
 import com.example.exoplayercompose.viewmodels.MainActivityViewModel
-import com.google.android.exoplayer2.C
 import com.google.android.exoplayer2.ExoPlayer
-import com.google.android.exoplayer2.MediaItem
 import com.google.android.exoplayer2.Player.*
 import com.google.android.exoplayer2.analytics.AnalyticsCollector
 import com.google.android.exoplayer2.analytics.AnalyticsListener
 import com.google.android.exoplayer2.analytics.DefaultAnalyticsCollector
 import com.google.android.exoplayer2.ext.ima.ImaAdsLoader
-import com.google.android.exoplayer2.source.DefaultMediaSourceFactory
 import com.google.android.exoplayer2.source.MediaSource
-import com.google.android.exoplayer2.source.ProgressiveMediaSource
 import com.google.android.exoplayer2.source.ads.AdsMediaSource
-import com.google.android.exoplayer2.source.dash.DashMediaSource
-import com.google.android.exoplayer2.source.hls.HlsMediaSource
-import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource
 import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector
 import com.google.android.exoplayer2.trackselection.TrackSelectionParameters
 import com.google.android.exoplayer2.ui.StyledPlayerView
 import com.google.android.exoplayer2.upstream.DataSpec
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter
-import com.google.android.exoplayer2.upstream.DefaultDataSource
 import com.google.android.exoplayer2.util.Clock
 import com.google.android.exoplayer2.util.Util
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filter
+import java.util.Formatter
+import java.util.Locale
 
 class MainActivity : ComponentActivity() {
     val TAG = "ExoplayerCompose"
@@ -73,7 +80,7 @@ class MainActivity : ComponentActivity() {
                     modifier = Modifier,
                     color = MaterialTheme.colors.background,
                 ) {
-                    PlayerScreen(this::getPlayerView,this::onPlayerViewUpdated,mainActivityViewModel._playerState,mainActivityViewModel.analyticsListener,this::getMediaSource,this::onPlayerClicked, modifier = Modifier.wrapContentHeight())
+                    PlayerScreen(this::getPlayerView,this::onPlayerViewUpdated,mainActivityViewModel.playerState,mainActivityViewModel.analyticsListener,this::wrapMediaSource,this::onPlayerClicked, modifier = Modifier.wrapContentHeight())
                 }
             }
         }
@@ -83,9 +90,11 @@ class MainActivity : ComponentActivity() {
         mainActivityViewModel?.onPlayerClicked()
     }
 
-    private fun getMediaSource(videoUrl : String,adUrl : String?,exoPlayer: ExoPlayer?,context : Context) : MediaSource {
-        val dataSourceFactory = DefaultDataSource.Factory(context)
-        var mediaSource = buildMediaSource(videoUrl,dataSourceFactory)
+    /**
+     * Wraps the content source built by the [MediaSourcePipeline] with ads. Runs on the main
+     * thread, which the ads loader requires.
+     */
+    private fun wrapMediaSource(contentSource : MediaSource, adUrl : String?, exoPlayer: ExoPlayer, factories : MediaSourcePipeline.Factories, context : Context) : MediaSource {
         if(adsLoader == null) {
             adsLoader = ImaAdsLoader.Builder(context).setAdEventListener { adEvent ->
                 adEvent?.let {
@@ -98,13 +107,12 @@ class MainActivity : ComponentActivity() {
             }.build()
         }
         adsLoader?.setPlayer(exoPlayer)
-        val mediaSourceFactory =
-            DefaultMediaSourceFactory(dataSourceFactory)
+        var mediaSource = contentSource
         adUrl?.let {
             mediaSource = AdsMediaSource(
                 mediaSource, DataSpec(Uri.parse(it)),
                 Any(),
-                mediaSourceFactory,
+                factories.adMediaSourceFactory,
                 adsLoader!!,
                 {playerView}
             )
@@ -112,27 +120,6 @@ class MainActivity : ComponentActivity() {
         return mediaSource
     }
 
-    private fun buildMediaSource(videoUrl : String, dataSourceFactory : DefaultDataSource.Factory) : MediaSource {
-        //        @C.ContentType int type = Util.inferContentType(uri, overrideExtension);
-        val type: @C.ContentType Int = Util.inferContentType(Uri.parse(videoUrl))
-        val mediaItemBuilder: MediaItem.Builder = MediaItem.Builder().setUri(videoUrl)
-        return when (type) {
-            C.CONTENT_TYPE_DASH -> //                    return new DashMediaSource.Factory(dataSourceFactory).setDrmSessionManager(drmSessionManager).setLoadErrorHandlingPolicy(errorHandlingPolicy).createMediaSource(uri);
-                DashMediaSource.Factory(dataSourceFactory)
-                    .createMediaSource(mediaItemBuilder.build())
-            C.CONTENT_TYPE_SS -> //                    return new SsMediaSource.Factory(dataSourceFactory).setDrmSessionManager(drmSessionManager).setLoadErrorHandlingPolicy(errorHandlingPolicy).createMediaSource(uri);
-                SsMediaSource.Factory(dataSourceFactory)
-                    .createMediaSource(mediaItemBuilder.build())
-            C.CONTENT_TYPE_HLS -> //                    return new HlsMediaSource.Factory(dataSourceFactory).setDrmSessionManager(drmSessionManager).setLoadErrorHandlingPolicy(errorHandlingPolicy).setAllowChunklessPreparation(true).createMediaSource(uri);
-                HlsMediaSource.Factory(dataSourceFactory)
-                    .setAllowChunklessPreparation(true).createMediaSource(mediaItemBuilder.build())
-            C.CONTENT_TYPE_OTHER -> //                    return new ProgressiveMediaSource.Factory(dataSourceFactory).setDrmSessionManager(drmSessionManager).setLoadErrorHandlingPolicy(errorHandlingPolicy).createMediaSource(uri);
-                ProgressiveMediaSource.Factory(dataSourceFactory)
-                    .createMediaSource(mediaItemBuilder.build())
-            else -> throw IllegalStateException("Unsupported type: $type")
-        }
-    }
-
     private fun onPlayerViewUpdated(view : View) {
         Log.e(TAG,"onPlayerViewUpdated")
     }
@@ -146,18 +133,20 @@ class MainActivity : ComponentActivity() {
 }
 
 @Composable
-fun PlayerControls(playbackState : Int,playWhenReady: Boolean,playerCurrentPosition: Long,totalDuration : Long, onPlayPauseAction :  ()-> Unit,onSeekForward: () -> Unit,onSeek : (Long) -> Unit,modifier: Modifier){
+fun PlayerControls(playerState : PlayerState, onPlayPauseAction :  ()-> Unit,onSeekForward: () -> Unit,onSeek : (Long) -> Unit,onSeekFinished : () -> Unit,modifier: Modifier){
+    CountRecompositions("PlayerControls")
 
+    // Slices are read by the controls that show them, so a position update only recomposes
+    // BottomControls.
     Column(modifier = modifier.fillMaxHeight() , verticalArrangement = Arrangement.SpaceBetween , horizontalAlignment = Alignment.CenterHorizontally) {
         TopControls(modifier)
         CentreControls(
-            playbackState = playbackState,
-            playWhenReady = playWhenReady,
+            playerState = playerState,
             onPlaybackAction = { onPlayPauseAction() },
             onSeekForward = { onSeekForward() },
             modifier = modifier
         )
-        BottomControls(playerCurrentPosition,totalDuration,{seekTo -> onSeek(seekTo)},modifier)
+        BottomControls(playerState,{seekTo -> onSeek(seekTo)},{ onSeekFinished() },modifier)
     }
 
 }
@@ -168,20 +157,103 @@ fun TopControls(modifier: Modifier) {
 }
 
 @Composable
-fun BottomControls(playerCurrentPosition : Long,totalDuration: Long, onSeek : (Long) -> Unit, modifier: Modifier) {
+fun BottomControls(playerState : PlayerState, onSeek : (Long) -> Unit, onSeekFinished : () -> Unit, modifier: Modifier) {
+    CountRecompositions("BottomControls")
+    val playerCurrentPosition = playerState.playerCurrentPosition
+    val totalDuration = playerState.totalDuration
+    // While dragging, the slider follows the finger rather than the coalesced seeks.
+    var scrubValue by remember { mutableStateOf<Float?>(null) }
     Column(modifier = modifier) {
-        Text(text = "$playerCurrentPosition / $totalDuration", color = Color.White)
-        val sliderValue  = if (totalDuration != 0L) {
+        PositionText(playerCurrentPosition / 1000, totalDuration / 1000)
+        val sliderValue  = scrubValue ?: if (totalDuration != 0L) {
             ((playerCurrentPosition).toFloat() / totalDuration.toFloat())
         } else {
             0
         }.toFloat()
-        Slider(steps = 100, value = sliderValue, onValueChange =  {value -> onSeek((if(totalDuration==0L) 0L else (value*totalDuration)).toLong())})
+        Slider(steps = 100, value = sliderValue, onValueChange =  {value ->
+            scrubValue = value
+            onSeek((if(totalDuration==0L) 0L else (value*totalDuration)).toLong())
+        }, onValueChangeFinished = {
+            scrubValue = null
+            onSeekFinished()
+        })
+    }
+}
+
+/** Shows the position and duration, formatted once per second rather than on every update. */
+@Composable
+fun PositionText(positionSeconds : Long, durationSeconds : Long) {
+    val builder = remember { StringBuilder() }
+    val formatter = remember { Formatter(builder, Locale.getDefault()) }
+    val text = Util.getStringForTime(builder, formatter, positionSeconds * 1000) + " / " +
+            Util.getStringForTime(builder, formatter, durationSeconds * 1000)
+    Text(text = text, color = Color.White)
+}
+
+/**
+ * Samples the player's position and buffered position on every display frame while the player is
+ * playing and the lifecycle is started, and publishes them to [playerState]. Only composed while
+ * the controller is visible, so nothing is sampled while it is hidden.
+ */
+@Composable
+fun PlayerPositionTicker(exoPlayer : ExoPlayer?, playerState : PlayerState) {
+    val player = exoPlayer ?: return
+    if (playerState.playbackState != STATE_READY || !playerState.playWhenReady) {
+        return
+    }
+    val lifecycle = LocalLifecycleOwner.current.lifecycle
+    DisposableEffect(player, playerState, lifecycle) {
+        val ticker = PositionTicker(player, playerState)
+        // Starts the ticker right away if the lifecycle is already started.
+        lifecycle.addObserver(ticker)
+        onDispose {
+            lifecycle.removeObserver(ticker)
+            ticker.stop()
+        }
+    }
+}
+
+/**
+ * Reposts itself to the [Choreographer] on every frame. Nothing is allocated per frame: the
+ * callback is reused and [PlayerState.updatePosition] only writes when a step is crossed.
+ */
+private class PositionTicker(
+    private val player : ExoPlayer,
+    private val playerState : PlayerState
+) : Choreographer.FrameCallback, DefaultLifecycleObserver {
+    private val choreographer = Choreographer.getInstance()
+    private var isRunning = false
+
+    override fun onStart(owner : LifecycleOwner) {
+        if (!isRunning) {
+            isRunning = true
+            choreographer.postFrameCallback(this)
+        }
+    }
+
+    override fun onStop(owner : LifecycleOwner) {
+        stop()
+    }
+
+    fun stop() {
+        isRunning = false
+        choreographer.removeFrameCallback(this)
+    }
+
+    override fun doFrame(frameTimeNanos : Long) {
+        if (!isRunning) {
+            return
+        }
+        playerState.updatePosition(player.currentPosition, player.bufferedPosition)
+        choreographer.postFrameCallback(this)
     }
 }
 
 @Composable
-fun CentreControls(playbackState: Int, playWhenReady: Boolean,onPlaybackAction : () -> Unit,onSeekForward : () -> Unit,modifier : Modifier) {
+fun CentreControls(playerState : PlayerState,onPlaybackAction : () -> Unit,onSeekForward : () -> Unit,modifier : Modifier) {
+    CountRecompositions("CentreControls")
+    val playbackState = playerState.playbackState
+    val playWhenReady = playerState.playWhenReady
     Row(modifier = modifier, verticalAlignment = Alignment.CenterVertically){
 
         if(playbackState == STATE_READY) {
@@ -202,51 +274,142 @@ fun CentreControls(playbackState: Int, playWhenReady: Boolean,onPlaybackAction :
     }
 }
 
+private const val VIEWPORT_DEBOUNCE_MS = 500L
+
+/**
+ * Caps video track selection to the size the player is drawn at, so a small inline player doesn't
+ * download and decode renditions far larger than its view. The first measured size applies right
+ * away, so the first segments are already fetched at the capped size. Later changes are debounced,
+ * so a layout animation (such as going fullscreen) causes one reselection instead of one per frame.
+ */
+@Composable
+fun ViewportTrackConstraints(exoPlayer : ExoPlayer?, viewportSize : () -> IntSize) {
+    LaunchedEffect(exoPlayer) {
+        val player = exoPlayer ?: return@LaunchedEffect
+        var isFirstSize = true
+        snapshotFlow(viewportSize)
+            .filter { it.width > 0 && it.height > 0 }
+            .distinctUntilChanged()
+            .collectLatest { size ->
+                if (isFirstSize) {
+                    isFirstSize = false
+                } else {
+                    delay(VIEWPORT_DEBOUNCE_MS)
+                }
+                // The viewport keeps the smallest track that exceeds it, so video is never upscaled.
+                player.trackSelectionParameters = player.trackSelectionParameters.buildUpon()
+                    .setViewportSize(size.width, size.height, false)
+                    .build()
+            }
+    }
+}
+
+/**
+ * Shows [PlayerControls] while the controller is visible. It is its own restart scope, so that
+ * toggling the controller doesn't recompose the player view.
+ */
+@Composable
+fun PlayerControllerOverlay(playerState : PlayerState, exoPlayer : ExoPlayer?, modifier : Modifier) {
+    val scrubSeeker = remember(exoPlayer) {
+        exoPlayer?.let { player -> ScrubSeeker(player) { stats -> Log.d("ExoplayerCompose", "scrub $stats") } }
+    }
+    DisposableEffect(scrubSeeker) {
+        onDispose {
+            scrubSeeker?.release()
+        }
+    }
+    if(playerState.isControllerVisible){
+        PlayerPositionTicker(exoPlayer, playerState)
+        PlayerControls(playerState, onPlayPauseAction = {exoPlayer?.playWhenReady = playerState.playWhenReady.not()} , onSeekForward = {exoPlayer?.seekForward()},
+            {seekTo -> scrubSeeker?.scrubTo(seekTo)},{ scrubSeeker?.stopScrub() },modifier
+        )
+    } else {
+        // Hiding the controller mid-drag ends the scrub where it was.
+        SideEffect { scrubSeeker?.stopScrub() }
+    }
+}
+
+/**
+ * Prefetches the start of the upcoming items into the cache with the [MediaPrefetcher]. The
+ * prefetches are canceled when the current item or the queue changes, and queued again for the new
+ * upcoming items; bytes already written stay in the cache.
+ */
+@Composable
+fun PrefetchUpcomingItems(playerState : PlayerState) {
+    val context = LocalContext.current
+    val videoUrl = playerState.videoUrl
+    val upcomingUrls = playerState.upcomingUrls
+    DisposableEffect(videoUrl, upcomingUrls) {
+        val prefetcher = MediaPrefetcher.getInstance(context)
+        // Prefetching waits while the foreground player is loading, so the current item comes first.
+        val tasks = upcomingUrls.map { prefetcher.prefetch(Uri.parse(it)) }
+        onDispose {
+            tasks.forEach { it.cancel() }
+        }
+    }
+}
+
 @Composable
 fun PlayerScreen(getPlayerView : (Context) -> View,
                 onPlayerViewUpdated : (View) -> Unit,
-                playerState: State<PlayerState>,
+                playerState: PlayerState,
                  analyticsListener: AnalyticsListener,
-                 getMediaSource : (String,String?,exoPlayer : ExoPlayer?,Context) -> MediaSource,
+                 wrapMediaSource : (MediaSource,String?,exoPlayer : ExoPlayer,MediaSourcePipeline.Factories,Context) -> MediaSource,
                  onPlayerClick : () -> Unit,
                 modifier: Modifier) {
     val context = LocalContext.current
 
     val lifecycle = LocalLifecycleOwner.current.lifecycle
 
-    val exoPlayer : ExoPlayer? = rememberExoPlayer(context = context, analyticsListener = analyticsListener)
+    val exoPlayer : ExoPlayer? = rememberExoPlayer(context = context, analyticsListener = analyticsListener) {
+        playerState.isEvicted = true
+    }
+    // An evicted player kept its media and position, so preparing it again resumes it.
+    val resumeIfEvicted = {
+        if (playerState.isEvicted) {
+            playerState.isEvicted = false
+            exoPlayer?.let { PlayerPool.prepare(it) }
+        }
+    }
+
+    var viewportSize by remember { mutableStateOf(IntSize.Zero) }
+    ViewportTrackConstraints(exoPlayer) { viewportSize }
 
     Box(modifier = modifier){
 
-        AndroidView(modifier = modifier.clickable {
+        AndroidView(modifier = modifier.onSizeChanged { viewportSize = it }.clickable {
+            resumeIfEvicted()
             onPlayerClick()
         }, factory = { context ->
-            val view = getPlayerView(context)
-            (view as StyledPlayerView).player = exoPlayer
-            view
+            getPlayerView(context)
         }, update = {
+            // The player is acquired after the first composition, once the warm-up is done.
+            (it as StyledPlayerView).player = exoPlayer
             onPlayerViewUpdated(it)
         })
 
-        remember(playerState.value.videoUrl,playerState.value.adUrl) {
-            playerState.value.videoUrl?.let {
-
-                val mediaSource = getMediaSource(it,playerState.value.adUrl,exoPlayer,context)
-
-                exoPlayer?.apply {
-                    setMediaSource(mediaSource)
-                    prepare()
+        val requestTimeMs = remember(playerState.videoUrl, playerState.adUrl) { SystemClock.elapsedRealtime() }
+        LaunchedEffect(playerState.videoUrl,playerState.adUrl) {
+            // Warm the content and ad hosts' connections while the cache is still opening.
+            HttpStack.preconnect(playerState.videoUrl, playerState.adUrl)
+        }
+        LaunchedEffect(playerState.videoUrl,playerState.adUrl,exoPlayer) {
+            val adUrl = playerState.adUrl
+            playerState.videoUrl?.let {
+                val player = exoPlayer ?: return@LaunchedEffect
+                playerState.isEvicted = false
+                // The source is built off the main thread; only the ads wrapping and prepare() run here.
+                MediaSourcePipeline.prepare(context, player, it, requestTimeMs) { contentSource, factories ->
+                    wrapMediaSource(contentSource, adUrl, player, factories, context)
                 }
             }
         }
 
-        if(playerState.value.isControllerVisible){
-            PlayerControls(playerState.value.playbackState,playerState.value.playWhenReady,playerState.value.playerCurrentPosition,playerState.value.totalDuration, onPlayPauseAction = {exoPlayer?.playWhenReady = playerState.value.playWhenReady.not()} , onSeekForward = {exoPlayer?.seekForward()},
-                {seekTo -> exoPlayer?.seekTo(seekTo)},modifier.matchParentSize()
-            )
-        }
+        PlayerControllerOverlay(playerState, exoPlayer, modifier.matchParentSize())
     }
 
+    PrefetchUpcomingItems(playerState)
+
 
 
 
@@ -257,6 +420,7 @@ fun PlayerScreen(getPlayerView : (Context) -> View,
 
             when(event){
                 Lifecycle.Event.ON_RESUME -> {
+                    resumeIfEvicted()
                     exoPlayer?.playWhenReady = true
                 }
 
@@ -268,17 +432,14 @@ fun PlayerScreen(getPlayerView : (Context) -> View,
                     exoPlayer?.playWhenReady = false
                 }
 
-                Lifecycle.Event.ON_DESTROY -> {
-                    exoPlayer?.release()
-                }
+                else -> {}
             }
         }
         lifecycle.addObserver(observer)
 
+        // rememberExoPlayer returns the player to the PlayerPool when it leaves the composition,
+        // which also happens on ON_DESTROY, so it is never released here.
         onDispose {
-            exoPlayer?.removeAnalyticsListener(analyticsListener)
-            exoPlayer?.release()
-            Log.e("ExoplayerCompose","on dispose exoPlayer.release()")
             lifecycle.removeObserver(observer)
         }
 
@@ -0,0 +1,209 @@
+package com.example.exoplayercompose
+
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import com.example.exoplayercompose.util.CacheStats
+import com.example.exoplayercompose.util.ManifestDataSource
+import com.example.exoplayercompose.util.ParallelRangeDataSource
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.ExoPlayer
+import com.google.android.exoplayer2.MediaItem
+import com.google.android.exoplayer2.Player
+import com.google.android.exoplayer2.source.DefaultMediaSourceFactory
+import com.google.android.exoplayer2.source.MediaSource
+import com.google.android.exoplayer2.source.ProgressiveMediaSource
+import com.google.android.exoplayer2.source.dash.DashMediaSource
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource
+import com.google.android.exoplayer2.source.hls.HlsDataSourceFactory
+import com.google.android.exoplayer2.source.hls.HlsMediaSource
+import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource
+import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource
+import com.google.android.exoplayer2.util.Util
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.withContext
+import java.util.WeakHashMap
+import java.util.concurrent.Executors
+
+/**
+ * Builds media sources off the main thread and hands them to the player.
+ *
+ * The expensive parts of the data source stack, the download cache, the HTTP clients and the
+ * manifest cache, are opened once per process by [PlayerWarmUp]. Each media source gets its own
+ * light [Factories] over them, built on the pipeline's thread, so that it counts its own cache hit
+ * and miss bytes. Only the final wrapping (such as ads, which need the activity's ads loader and
+ * view) and [ExoPlayer.prepare] run on the caller's thread, in a coroutine step of their own rather
+ * than inside a frame.
+ */
+object MediaSourcePipeline {
+    private const val TAG = "MediaSourcePipeline"
+
+    /** How long each stage took, from the URL being set to [ExoPlayer.prepare], in milliseconds. */
+    data class Timings(
+        val warmUpWaitMs : Long,
+        val buildMs : Long,
+        val handOffMs : Long,
+        val prepareMs : Long,
+        val totalMs : Long
+    )
+
+    /** What one media source loaded through the caches so far, counted by its own [Factories]. */
+    data class SourceStats(
+        val content : CacheStats.Snapshot,
+        val ads : CacheStats.Snapshot,
+        val manifests : ManifestDataSource.Stats
+    ) {
+        companion object {
+            fun of(dataSources : DataSourceFactories) = SourceStats(
+                dataSources.contentStats.snapshot(),
+                dataSources.adStats.snapshot(),
+                dataSources.manifest.snapshot())
+        }
+    }
+
+    /**
+     * The factories of one media source, including its ads. Its [dataSources] count what that
+     * source alone loads.
+     */
+    class Factories(val dataSources : DataSourceFactories) {
+        /** Creates the media sources of ads, through the ad cache. */
+        val adMediaSourceFactory : MediaSource.Factory = DefaultMediaSourceFactory(dataSources.ad)
+
+        private val dashFactory by lazy {
+            DashMediaSource.Factory(DefaultDashChunkSource.Factory(dataSources.content), dataSources.manifest)
+        }
+        private val ssFactory by lazy {
+            SsMediaSource.Factory(DefaultSsChunkSource.Factory(dataSources.content), dataSources.manifest)
+        }
+        private val hlsFactory by lazy {
+            HlsMediaSource.Factory(HlsDataSourceFactory { dataType ->
+                if (dataType == C.DATA_TYPE_MANIFEST) dataSources.manifest.createDataSource() else dataSources.content.createDataSource()
+            }).setAllowChunklessPreparation(true)
+        }
+        private val progressiveFactory by lazy {
+            ProgressiveMediaSource.Factory(ParallelRangeDataSource.Factory(dataSources.parallelContent))
+        }
+
+        /** Creates the content media source for [videoUrl], picking the factory from its type. */
+        fun createContentMediaSource(videoUrl : String) : MediaSource {
+            val mediaItem = MediaItem.Builder().setUri(videoUrl).build()
+            val factory : MediaSource.Factory = when (val type = Util.inferContentType(Uri.parse(videoUrl))) {
+                C.CONTENT_TYPE_DASH -> dashFactory
+                C.CONTENT_TYPE_SS -> ssFactory
+                C.CONTENT_TYPE_HLS -> hlsFactory
+                C.CONTENT_TYPE_OTHER -> progressiveFactory
+                else -> throw IllegalStateException("Unsupported type: $type")
+            }
+            return factory.createMediaSource(mediaItem)
+        }
+    }
+
+    private val dispatcher = Executors.newSingleThreadExecutor { Thread(it, "ExoplayerCompose:MediaSource") }
+        .asCoroutineDispatcher()
+
+    /** The timings of the last completed preparation, or null if there hasn't been one. */
+    @Volatile
+    var lastTimings : Timings? = null
+        private set
+
+    // The data sources and the pending ready listener of the source each player was last prepared
+    // with. Caller's thread only.
+    private class PreparedSource(val dataSources : DataSourceFactories) {
+        var readyListener : Player.Listener? = null
+    }
+    private val preparedSources = WeakHashMap<Player, PreparedSource>()
+
+    /**
+     * Builds the media source for [videoUrl] on the pipeline's thread, then, back on the caller's
+     * thread, passes it through [wrap], sets it on [player] and prepares it. What the source loads
+     * through the caches is logged as [SourceStats] once the player is ready, and again with the
+     * final counts when the player is prepared with another source. [getSourceStats] returns it at
+     * any time.
+     *
+     * @param requestTimeMs The [SystemClock.elapsedRealtime] at which the URL was set.
+     * @param wrap Wraps the content media source, for example with ads.
+     */
+    suspend fun prepare(
+        context : Context,
+        player : ExoPlayer,
+        videoUrl : String,
+        requestTimeMs : Long,
+        wrap : (MediaSource, Factories) -> MediaSource
+    ) : Timings {
+        val appContext = context.applicationContext
+        // The cache and the warm-up's data source factories must be ready before building.
+        try {
+            PlayerWarmUp.await(appContext)
+        } catch (e : CancellationException) {
+            throw e
+        } catch (e : Exception) {
+            // createFactories creates the data source factories on the pipeline's thread instead.
+            Log.w(TAG, "Building without the warm-up", e)
+        }
+        val warmedUpTimeMs = SystemClock.elapsedRealtime()
+        val (contentSource, factories, builtTimeMs) = withContext(dispatcher) {
+            val factories = createFactories(appContext)
+            val contentSource = factories.createContentMediaSource(videoUrl)
+            Triple(contentSource, factories, SystemClock.elapsedRealtime())
+        }
+        val resumedTimeMs = SystemClock.elapsedRealtime()
+        val mediaSource = wrap(contentSource, factories)
+        trackSourceStats(player, factories.dataSources)
+        player.setMediaSource(mediaSource)
+        player.prepare()
+        val preparedTimeMs = SystemClock.elapsedRealtime()
+        val timings = Timings(
+            warmUpWaitMs = warmedUpTimeMs - requestTimeMs,
+            buildMs = builtTimeMs - warmedUpTimeMs,
+            handOffMs = resumedTimeMs - builtTimeMs,
+            prepareMs = preparedTimeMs - resumedTimeMs,
+            totalMs = preparedTimeMs - requestTimeMs)
+        Log.d(TAG, "$timings")
+        lastTimings = timings
+        return timings
+    }
+
+    /**
+     * Returns what the source [player] was last prepared with loaded through the caches so far, or
+     * null if it wasn't prepared through the pipeline. Must be called on the player's thread.
+     */
+    fun getSourceStats(player : Player) : SourceStats? =
+        preparedSources[player]?.let { SourceStats.of(it.dataSources) }
+
+    /**
+     * Makes [dataSources] the source of [player], logging the final counts of the previous one, and
+     * logs the counts of the new one once [player] becomes ready.
+     */
+    private fun trackSourceStats(player : ExoPlayer, dataSources : DataSourceFactories) {
+        val preparedSource = PreparedSource(dataSources)
+        preparedSources.put(player, preparedSource)?.let { previous ->
+            previous.readyListener?.let { player.removeListener(it) }
+            Log.d(TAG, "Replaced source ${SourceStats.of(previous.dataSources)}")
+        }
+        val listener = object : Player.Listener {
+            // Uses the player passed in rather than capturing it, so the map doesn't retain it.
+            override fun onEvents(readyPlayer : Player, events : Player.Events) {
+                if (!events.contains(Player.EVENT_PLAYBACK_STATE_CHANGED)
+                    || readyPlayer.playbackState != Player.STATE_READY) {
+                    return
+                }
+                readyPlayer.removeListener(this)
+                preparedSource.readyListener = null
+                Log.d(TAG, "Ready ${SourceStats.of(dataSources)}")
+            }
+        }
+        preparedSource.readyListener = listener
+        player.addListener(listener)
+    }
+
+    /**
+     * Creates the factories of one media source: the ones the warm-up created for the first source,
+     * or new ones over the shared cache, HTTP clients and manifest cache.
+     */
+    private fun createFactories(context : Context) : Factories {
+        val dataSources = PlayerWarmUp.takeDataSourceFactories() ?: DataSourceFactories.create(context)
+        return Factories(dataSources)
+    }
+}
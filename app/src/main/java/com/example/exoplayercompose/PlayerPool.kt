@@ -0,0 +1,242 @@
+package com.example.exoplayercompose
+
+import android.content.Context
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import com.example.exoplayercompose.player.BufferBasedTrackSelection
+import com.example.exoplayercompose.player.BufferBudgetCoordinator
+import com.example.exoplayercompose.player.CustomLoadControl
+import com.example.exoplayercompose.player.MediaPrefetcher
+import com.example.exoplayercompose.player.PersistentBandwidthMeter
+import com.example.exoplayercompose.player.PooledAllocator
+import com.example.exoplayercompose.player.ThroughputScaledBufferPolicy
+import com.google.android.exoplayer2.ExoPlayer
+import com.google.android.exoplayer2.Player
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector
+import com.google.android.exoplayer2.trackselection.TrackSelectionParameters
+
+private const val SEEK_INCREMENT_MS = 30000
+
+/**
+ * A bounded pool of pre-built [ExoPlayer] instances, so that a screen entering composition doesn't
+ * pay for building a player, its track selector and its [CustomLoadControl].
+ *
+ * Released players are stopped, cleared and kept for reuse, up to [MAX_IDLE_PLAYERS]. At most
+ * [MAX_DECODING_PLAYERS] acquired players are allowed to hold media at once: acquiring another one,
+ * or resuming one with [prepare], stops the least recently acquired player that still does, which
+ * releases its decoders. Players that aren't showing video on a surface are stopped first. The
+ * owner of a stopped player is told through the `onEvicted` callback given to [acquire], and can
+ * resume it with [prepare], since [Player.stop] keeps its media items and position.
+ *
+ * All pooled players share one [BufferBudgetCoordinator]: the most recently acquired player loads
+ * at [CustomLoadControl.LOADING_PRIORITY] and gets the foreground share of [BUFFER_BUDGET_BYTES],
+ * the others load at [CustomLoadControl.PRELOADING_PRIORITY] within the rest. Idle players don't
+ * take a share.
+ *
+ * Players share the [PersistentBandwidthMeter] passed to [prewarm] and [acquire], which callers
+ * get from [PlayerWarmUp], so that building a player never reads the bandwidth history on the main
+ * thread.
+ *
+ * Must be used on the main thread, which is the application looper of the pooled players.
+ */
+object PlayerPool {
+    private const val TAG = "PlayerPool"
+
+    const val MAX_IDLE_PLAYERS = 2
+    const val MAX_DECODING_PLAYERS = 2
+    const val BUFFER_BUDGET_BYTES = 64 * 1024 * 1024
+
+    private val bufferBudgetCoordinator = BufferBudgetCoordinator(BUFFER_BUDGET_BYTES)
+
+    private class Entry(
+        val player : ExoPlayer,
+        val loadControl : CustomLoadControl,
+        val bufferBasedAbr : Boolean,
+        val defaultParameters : TrackSelectionParameters
+    ) : Player.Listener {
+        var onEvicted : (() -> Unit)? = null
+        var hasSurface = false
+
+        override fun onSurfaceSizeChanged(width : Int, height : Int) {
+            hasSurface = width > 0 && height > 0
+        }
+    }
+
+    private val idleEntries = mutableListOf<Entry>()
+    // In acquire order, so the first entry is the least recently acquired.
+    private val activeEntries = LinkedHashMap<ExoPlayer, Entry>()
+
+    private var acquireCount = 0
+    private var hitCount = 0
+    private var totalAcquireTimeNs = 0L
+
+    /** Returns the fraction of acquisitions served from the pool. */
+    val hitRate : Float
+        get() = if (acquireCount == 0) 0f else hitCount.toFloat() / acquireCount
+
+    /** Returns the average time [acquire] took, in milliseconds. */
+    val averageAcquireLatencyMs : Float
+        get() = if (acquireCount == 0) 0f else totalAcquireTimeNs / 1_000_000f / acquireCount
+
+    /** Builds idle players until there are [count] of them, capped at [MAX_IDLE_PLAYERS]. */
+    fun prewarm(
+        context : Context,
+        bandwidthMeter : PersistentBandwidthMeter,
+        count : Int = 1,
+        bufferBasedAbr : Boolean = false
+    ) {
+        checkMainThread()
+        while (idleEntries.size < minOf(count, MAX_IDLE_PLAYERS)) {
+            idleEntries.add(buildEntry(context.applicationContext, bufferBasedAbr, bandwidthMeter))
+        }
+    }
+
+    /**
+     * Returns a reset player from the pool, or a newly built one if none matches.
+     *
+     * @param bufferBasedAbr Whether the player selects tracks with [BufferBasedTrackSelection].
+     * @param bandwidthMeter The shared bandwidth meter, used if a player has to be built.
+     * @param onEvicted Called when the player is stopped to stay within [MAX_DECODING_PLAYERS].
+     */
+    fun acquire(
+        context : Context,
+        bufferBasedAbr : Boolean,
+        bandwidthMeter : PersistentBandwidthMeter,
+        onEvicted : () -> Unit = {}
+    ) : ExoPlayer {
+        checkMainThread()
+        val startTimeNs = SystemClock.elapsedRealtimeNanos()
+        val index = idleEntries.indexOfFirst { it.bufferBasedAbr == bufferBasedAbr }
+        val entry = if (index != -1) {
+            hitCount++
+            idleEntries.removeAt(index)
+        } else {
+            buildEntry(context.applicationContext, bufferBasedAbr, bandwidthMeter)
+        }
+        entry.onEvicted = onEvicted
+        entry.loadControl.setBudgetActive(true)
+        evictDecoderIfAtCap(entry)
+        activeEntries[entry.player] = entry
+        updateLoadingPriorities()
+        // Prefetching of upcoming items waits while the newest player is loading.
+        MediaPrefetcher.getInstance(context).setForegroundLoadControl(entry.loadControl)
+        acquireCount++
+        totalAcquireTimeNs += SystemClock.elapsedRealtimeNanos() - startTimeNs
+        Log.d(TAG, "acquire hit=${index != -1} hitRate=$hitRate averageLatencyMs=$averageAcquireLatencyMs")
+        return entry.player
+    }
+
+    /**
+     * Prepares an acquired player, typically one that was evicted, after stopping another one if
+     * [MAX_DECODING_PLAYERS] are already holding media. Does nothing if the player isn't acquired.
+     */
+    fun prepare(player : ExoPlayer) {
+        checkMainThread()
+        val entry = activeEntries[player] ?: return
+        if (player.playbackState == Player.STATE_IDLE) {
+            evictDecoderIfAtCap(entry)
+            player.prepare()
+        }
+    }
+
+    /**
+     * Returns a player to the pool. It is stopped and cleared, and kept if there is room, or
+     * released otherwise. Releasing a player that isn't acquired does nothing.
+     */
+    fun release(context : Context, player : ExoPlayer) {
+        checkMainThread()
+        val entry = activeEntries.remove(player) ?: return
+        entry.onEvicted = null
+        entry.loadControl.setLoadingPriority(CustomLoadControl.PRELOADING_PRIORITY)
+        entry.loadControl.setBudgetActive(false)
+        updateLoadingPriorities()
+        MediaPrefetcher.getInstance(context)
+            .setForegroundLoadControl(activeEntries.values.lastOrNull()?.loadControl)
+        if (idleEntries.size >= MAX_IDLE_PLAYERS) {
+            player.release()
+            return
+        }
+        player.stop()
+        player.clearMediaItems()
+        player.playWhenReady = false
+        player.trackSelectionParameters = entry.defaultParameters
+        idleEntries.add(entry)
+    }
+
+    private fun buildEntry(
+        context : Context,
+        bufferBasedAbr : Boolean,
+        bandwidthMeter : PersistentBandwidthMeter
+    ) : Entry {
+        // The meter is seeded from the throughput history of the current network type, so
+        // AdaptiveTrackSelection starts at the right tier.
+        val loadControl = CustomLoadControl.Builder()
+            .setAllocator(PooledAllocator())
+            .setBandwidthMeter(bandwidthMeter)
+            .setBufferPolicy(ThroughputScaledBufferPolicy())
+            .setBitrateBasedTargetBufferBytes(true, CustomLoadControl.DEFAULT_BITRATE_HEADROOM_FACTOR)
+            .setTrimOnMemoryPressure(context, CustomLoadControl.DEFAULT_MEMORY_PRESSURE_RECOVERY_MS)
+            .setPredictiveStart(
+                CustomLoadControl.DEFAULT_PREDICTIVE_START_SAFETY_FACTOR,
+                CustomLoadControl.DEFAULT_PREDICTIVE_START_MIN_BUFFER_MS,
+                CustomLoadControl.DEFAULT_PREDICTIVE_START_HORIZON_MS)
+            .setSeekBackBuffer(SEEK_INCREMENT_MS, CustomLoadControl.DEFAULT_BACK_BUFFER_MAX_BYTES)
+            .setBufferBudgetCoordinator(bufferBudgetCoordinator, CustomLoadControl.PRELOADING_PRIORITY)
+            .build()
+        // Idle players don't load, so they leave the budget to the acquired ones until acquire.
+        loadControl.setBudgetActive(false)
+        val trackSelectionFactory = if (bufferBasedAbr) {
+            BufferBasedTrackSelection.Factory(loadControl) { trackGroup, oldFormat, newFormat, rule, bufferedDurationUs, bitrateEstimate ->
+                Log.d(TAG, "ABR switch ${trackGroup.id} ${oldFormat.bitrate} -> ${newFormat.bitrate}"
+                        + " rule=$rule buffered=${bufferedDurationUs / 1000}ms estimate=$bitrateEstimate")
+            }
+        } else {
+            AdaptiveTrackSelection.Factory()
+        }
+        val defaultParameters = TrackSelectionParameters.Builder(context).build()
+        val trackSelector = DefaultTrackSelector(context, trackSelectionFactory)
+        trackSelector.setParameters(defaultParameters)
+        val player = ExoPlayer.Builder(context)
+            .setTrackSelector(trackSelector)
+            .setBandwidthMeter(bandwidthMeter)
+            .setSeekForwardIncrementMs(SEEK_INCREMENT_MS.toLong())
+            .setSeekBackIncrementMs(SEEK_INCREMENT_MS.toLong())
+            .setLoadControl(loadControl)
+            .build()
+        return Entry(player, loadControl, bufferBasedAbr, defaultParameters).also { player.addListener(it) }
+    }
+
+    /**
+     * Stops one of the players holding media other than [entry]'s if there are already
+     * [MAX_DECODING_PLAYERS] of them: the least recently acquired one without a surface, or else
+     * the least recently acquired one. Its owner is notified.
+     */
+    private fun evictDecoderIfAtCap(entry : Entry) {
+        val decodingEntries = activeEntries.values.filter {
+            it !== entry && it.player.playbackState != Player.STATE_IDLE
+        }
+        if (decodingEntries.size < MAX_DECODING_PLAYERS) {
+            return
+        }
+        val evicted = decodingEntries.firstOrNull { !it.hasSurface } ?: decodingEntries.first()
+        Log.d(TAG, "Decoder cap reached, stopping a player hasSurface=${evicted.hasSurface}")
+        evicted.player.stop()
+        evicted.onEvicted?.invoke()
+    }
+
+    /** Gives the foreground priority to the most recently acquired player only. */
+    private fun updateLoadingPriorities() {
+        val foregroundEntry = activeEntries.values.lastOrNull()
+        for (entry in activeEntries.values) {
+            entry.loadControl.setLoadingPriority(
+                if (entry === foregroundEntry) CustomLoadControl.LOADING_PRIORITY
+                else CustomLoadControl.PRELOADING_PRIORITY)
+        }
+    }
+
+    private fun checkMainThread() {
+        check(Looper.myLooper() == Looper.getMainLooper()) { "PlayerPool must be used on the main thread" }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.exoplayercompose
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import com.example.exoplayercompose.player.PersistentBandwidthMeter
+import com.example.exoplayercompose.util.CacheStats
+import com.example.exoplayercompose.util.HttpStack
+import com.example.exoplayercompose.util.ManifestDataSource
+import com.example.exoplayercompose.util.Util
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.cache.Cache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.async
+import kotlinx.coroutines.withContext
+import java.util.concurrent.Executors
+
+/**
+ * Content, manifest and ad data source factories, with their cache counters. [MediaSourcePipeline]
+ * creates one set per media source, so that each source counts its own cache hits and misses. The
+ * download cache, the HTTP clients and the manifest cache under them are shared by the process.
+ *
+ * [parallelContent] reads the same cache as [content] but fetches over HTTP/1.1 only, for the
+ * parallel range requests of progressive media.
+ */
+class DataSourceFactories(
+    val content : DataSource.Factory,
+    val parallelContent : DataSource.Factory,
+    val contentStats : CacheStats,
+    val manifest : ManifestDataSource.Factory,
+    val ad : DataSource.Factory,
+    val adStats : CacheStats
+) {
+    companion object {
+        fun create(context : Context) : DataSourceFactories {
+            val contentStats = CacheStats()
+            val adStats = CacheStats()
+            return DataSourceFactories(
+                Util.buildCacheDataSourceFactory(context, contentStats),
+                Util.buildCacheDataSourceFactory(context, contentStats, HttpStack.getHttp1DataSourceFactory()),
+                contentStats,
+                Util.buildManifestDataSourceFactory(context),
+                Util.buildCacheDataSourceFactory(context, adStats), adStats)
+        }
+    }
+}
+
+/**
+ * Opens the download cache and creates the shared bandwidth meter and data source factories on a
+ * background thread, so the first composition of [PlayerScreen] never waits on disk I/O.
+ *
+ * [start] is called from [ExoplayerComposeApplication.onCreate]; later calls return the same
+ * handle. If the warm-up fails, the handle is dropped so that a later [start] tries again, and
+ * [MediaSourcePipeline] creates what it needs on demand.
+ */
+object PlayerWarmUp {
+    private const val TAG = "PlayerWarmUp"
+
+    /** How long each stage of the warm-up took, in milliseconds. */
+    data class Timings(
+        val queueDelayMs : Long,
+        val cacheOpenMs : Long,
+        val bandwidthMeterMs : Long,
+        val dataSourceFactoriesMs : Long,
+        val totalMs : Long
+    )
+
+    class Result(
+        val cache : Cache,
+        val bandwidthMeter : PersistentBandwidthMeter,
+        val timings : Timings
+    )
+
+    private val dispatcher = Executors.newSingleThreadExecutor { Thread(it, "ExoplayerCompose:WarmUp") }
+        .asCoroutineDispatcher()
+    private val scope = CoroutineScope(SupervisorJob() + dispatcher)
+
+    private var result : Deferred<Result>? = null
+    private var dataSourceFactories : DataSourceFactories? = null
+
+    /**
+     * Starts the warm-up if it hasn't been started yet, or if the last one failed, and returns its
+     * handle.
+     */
+    @Synchronized
+    fun start(context : Context) : Deferred<Result> {
+        result?.let { return it }
+        val appContext = context.applicationContext
+        val requestTimeMs = SystemClock.elapsedRealtime()
+        val deferred = scope.async {
+            val startTimeMs = SystemClock.elapsedRealtime()
+            val cache = Util.getDownloadCache(appContext)
+            val cacheOpenedTimeMs = SystemClock.elapsedRealtime()
+            val bandwidthMeter = PersistentBandwidthMeter.getSingletonInstance(appContext)
+            val bandwidthMeterTimeMs = SystemClock.elapsedRealtime()
+            val factories = DataSourceFactories.create(appContext)
+            synchronized(this@PlayerWarmUp) {
+                dataSourceFactories = factories
+            }
+            val endTimeMs = SystemClock.elapsedRealtime()
+            val timings = Timings(
+                queueDelayMs = startTimeMs - requestTimeMs,
+                cacheOpenMs = cacheOpenedTimeMs - startTimeMs,
+                bandwidthMeterMs = bandwidthMeterTimeMs - cacheOpenedTimeMs,
+                dataSourceFactoriesMs = endTimeMs - bandwidthMeterTimeMs,
+                totalMs = endTimeMs - requestTimeMs)
+            Log.d(TAG, "$timings")
+            Result(cache, bandwidthMeter, timings)
+        }
+        result = deferred
+        deferred.invokeOnCompletion { error ->
+            if (error != null) {
+                Log.w(TAG, "Warm-up failed", error)
+                synchronized(this@PlayerWarmUp) {
+                    if (result === deferred) {
+                        result = null
+                    }
+                }
+            }
+        }
+        return deferred
+    }
+
+    /**
+     * Suspends until the warm-up is complete, starting it if needed.
+     *
+     * @throws Exception The error of the warm-up, if it failed.
+     */
+    suspend fun await(context : Context) : Result = start(context).await()
+
+    /**
+     * Returns the shared bandwidth meter once the warm-up has read its history. If the warm-up
+     * failed, the meter is created on the warm-up thread instead, so the caller never reads the
+     * history itself.
+     */
+    suspend fun awaitBandwidthMeter(context : Context) : PersistentBandwidthMeter {
+        return try {
+            await(context).bandwidthMeter
+        } catch (e : CancellationException) {
+            throw e
+        } catch (e : Exception) {
+            withContext(dispatcher) { PersistentBandwidthMeter.getSingletonInstance(context.applicationContext) }
+        }
+    }
+
+    /**
+     * Returns the data source factories created during warm-up, or null if they have already been
+     * taken. They are handed out once, to the first media source of [MediaSourcePipeline].
+     */
+    @Synchronized
+    fun takeDataSourceFactories() : DataSourceFactories? {
+        val factories = dataSourceFactories
+        dataSourceFactories = null
+        return factories
+    }
+}
@@ -2,30 +2,52 @@ package com.example.exoplayercompose
 
 import android.content.Context
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.DisposableEffect
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
-import com.example.exoplayercompose.player.CustomLoadControl
+import androidx.compose.runtime.rememberUpdatedState
+import androidx.compose.runtime.setValue
+import com.example.exoplayercompose.player.BufferBasedTrackSelection
 import com.google.android.exoplayer2.ExoPlayer
-import com.google.android.exoplayer2.analytics.AnalyticsCollector
 import com.google.android.exoplayer2.analytics.AnalyticsListener
-import com.google.android.exoplayer2.analytics.DefaultAnalyticsCollector
 import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection
-import com.google.android.exoplayer2.trackselection.DefaultTrackSelector
-import com.google.android.exoplayer2.trackselection.TrackSelectionParameters
-import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter
-import com.google.android.exoplayer2.util.Clock
+import kotlinx.coroutines.awaitCancellation
 
+/**
+ * Remembers an [ExoPlayer] acquired from the [PlayerPool], and returns it to the pool when it
+ * leaves the composition.
+ *
+ * The player is acquired in an effect once [PlayerWarmUp] has read the bandwidth history, never
+ * during composition, since building a pooled player would otherwise read it on the main thread.
+ * Until then, null is returned.
+ *
+ * @param bufferBasedAbr Whether to select tracks with [BufferBasedTrackSelection], driven by the
+ * load control's watermarks, instead of the throughput-based [AdaptiveTrackSelection].
+ * @param onEvicted Called when the pool stops the player to free its decoders. It can be resumed
+ * with [PlayerPool.prepare].
+ */
 @Composable
-fun rememberExoPlayer(context : Context ,analyticsListener: AnalyticsListener) = remember {
-    val analyticsCollector : AnalyticsCollector = DefaultAnalyticsCollector(Clock.DEFAULT)
-    analyticsCollector.addListener(analyticsListener)
-    val trackSelector = DefaultTrackSelector(context, AdaptiveTrackSelection.Factory())
-    trackSelector.setParameters(TrackSelectionParameters.Builder(context).build())
-    ExoPlayer.Builder(context)
-        .setTrackSelector(trackSelector)
-        .setAnalyticsCollector(analyticsCollector)
-        .setBandwidthMeter(DefaultBandwidthMeter.getSingletonInstance(context))
-        .setSeekForwardIncrementMs(30000)
-        .setSeekBackIncrementMs(30000)
-        .setLoadControl(CustomLoadControl.Builder().build())
-        .build()
-}
\ No newline at end of file
+fun rememberExoPlayer(context : Context ,analyticsListener: AnalyticsListener, bufferBasedAbr : Boolean = false, onEvicted : () -> Unit = {}) : ExoPlayer? {
+    val currentOnEvicted by rememberUpdatedState(onEvicted)
+    var exoPlayer by remember(bufferBasedAbr) { mutableStateOf<ExoPlayer?>(null) }
+    LaunchedEffect(bufferBasedAbr) {
+        val bandwidthMeter = PlayerWarmUp.awaitBandwidthMeter(context)
+        val player = PlayerPool.acquire(context, bufferBasedAbr, bandwidthMeter) { currentOnEvicted() }
+        exoPlayer = player
+        try {
+            awaitCancellation()
+        } finally {
+            PlayerPool.release(context, player)
+        }
+    }
+    DisposableEffect(exoPlayer, analyticsListener) {
+        val player = exoPlayer
+        player?.addAnalyticsListener(analyticsListener)
+        onDispose {
+            player?.removeAnalyticsListener(analyticsListener)
+        }
+    }
+    return exoPlayer
+}
@@ -1,12 +1,77 @@
 package com.example.exoplayercompose.model
 
-import java.time.Duration
-
-data class PlayerState(val videoUrl : String? = null,
-                       val adUrl : String? = "https://pubads.g.doubleclick.net/gampad/ads?iu=/21775744923/external/vmap_ad_samples&sz=640x480&cust_params=sample_ar%3Dpremidpostpod&ciu_szs=300x250&gdfp_req=1&ad_rule=1&output=vmap&unviewed_position_start=1&env=vp&impl=s&cmsid=496&vid=short_onecue&correlator=",
-                       val playbackState : Int = 0,
-                       val playWhenReady : Boolean = false ,
-                       val playerCurrentPosition : Long = 0,
-                        val isControllerVisible : Boolean = false,
-                        val bufferPercentage : Int = 0,
-                        val totalDuration: Long = 0)
\ No newline at end of file
+import androidx.compose.runtime.Stable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.setValue
+import com.google.android.exoplayer2.Player
+
+/** The step at which [PlayerState.updatePosition] publishes positions, in milliseconds. */
+const val POSITION_RESOLUTION_MS = 250L
+
+const val DEFAULT_AD_URL = "https://pubads.g.doubleclick.net/gampad/ads?iu=/21775744923/external/vmap_ad_samples&sz=640x480&cust_params=sample_ar%3Dpremidpostpod&ciu_szs=300x250&gdfp_req=1&ad_rule=1&output=vmap&unviewed_position_start=1&env=vp&impl=s&cmsid=496&vid=short_onecue&correlator="
+
+/**
+ * The state of the player UI, split into slices that are observed independently: the media, the
+ * playback state, the position, the buffering and the controller visibility. A composable only
+ * recomposes when a slice it reads changes, so a position update doesn't invalidate the player
+ * view or the play/pause controls.
+ *
+ * Slices use structural equality, so writing the value a slice already holds doesn't invalidate
+ * its readers.
+ */
+@Stable
+class PlayerState(
+    videoUrl : String? = null,
+    adUrl : String? = DEFAULT_AD_URL,
+    upcomingUrls : List<String> = emptyList()
+) {
+    var videoUrl by mutableStateOf(videoUrl)
+    var adUrl by mutableStateOf(adUrl)
+    /** The URLs queued after [videoUrl], in play order. Their start is prefetched into the cache. */
+    var upcomingUrls by mutableStateOf(upcomingUrls)
+
+    var playbackState by mutableStateOf(Player.STATE_IDLE)
+    var playWhenReady by mutableStateOf(false)
+
+    var playerCurrentPosition by mutableStateOf(0L)
+    var totalDuration by mutableStateOf(0L)
+
+    var bufferPercentage by mutableStateOf(0)
+    var bufferedPosition by mutableStateOf(0L)
+
+    var isControllerVisible by mutableStateOf(false)
+
+    /**
+     * Whether the player was stopped by the [com.example.exoplayercompose.PlayerPool] to free its
+     * decoders, and has to be prepared again to resume.
+     */
+    var isEvicted by mutableStateOf(false)
+
+    /** Updates the position, duration and buffering slices, each only if it changed. */
+    fun updateProgress(positionMs : Long, bufferPercentage : Int, durationMs : Long) {
+        if (playerCurrentPosition != positionMs) {
+            playerCurrentPosition = positionMs
+        }
+        if (this.bufferPercentage != bufferPercentage) {
+            this.bufferPercentage = bufferPercentage
+        }
+        if (totalDuration != durationMs) {
+            totalDuration = durationMs
+        }
+    }
+
+    /**
+     * Updates the position and buffered position slices, each only when it moves to another
+     * [POSITION_RESOLUTION_MS] step. Sampling every frame then writes a few times a second, which
+     * is as often as the controls can show a change.
+     */
+    fun updatePosition(positionMs : Long, bufferedPositionMs : Long) {
+        if (positionMs / POSITION_RESOLUTION_MS != playerCurrentPosition / POSITION_RESOLUTION_MS) {
+            playerCurrentPosition = positionMs
+        }
+        if (bufferedPositionMs / POSITION_RESOLUTION_MS != bufferedPosition / POSITION_RESOLUTION_MS) {
+            bufferedPosition = bufferedPositionMs
+        }
+    }
+}
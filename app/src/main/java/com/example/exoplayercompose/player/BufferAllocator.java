@@ -0,0 +1,41 @@
+package com.example.exoplayercompose.player;
+
+import android.content.Context;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+/** An {@link Allocator} whose buffer budget is managed by {@link CustomLoadControl}. */
+public interface BufferAllocator extends Allocator {
+
+    /**
+     * Sets the target buffer size in bytes. Allocations that are free beyond this size are released
+     * by {@link #trim()}.
+     *
+     * @param targetBufferSize The target buffer size in bytes.
+     */
+    void setTargetBufferSize(int targetBufferSize);
+
+    /** Releases the free allocations, called when playback stops or the player is released. */
+    void reset();
+
+    /**
+     * Returns the number of bytes kept reachable by this allocator: the allocated bytes, the free
+     * allocations it holds and any pool it returns them to. Comparing the value before and after
+     * {@link #trim()} gives the bytes actually released.
+     *
+     * @return The retained bytes, or {@link C#LENGTH_UNSET} if the allocator can't measure its free
+     *     allocations.
+     */
+    int getRetainedBytes();
+
+    /**
+     * Makes the free memory kept outside the buffer, such as a shared segment pool, shrink under
+     * memory pressure on its own. Called once when the load control reacts to memory pressure. Does
+     * nothing by default.
+     *
+     * @param context Any {@link Context}, its application context is used.
+     * @param recoveryMs The time without a trim request after which the pressure level is lowered
+     *     by one step, in milliseconds.
+     */
+    default void trimOnMemoryPressure(Context context, int recoveryMs) {}
+}
@@ -0,0 +1,292 @@
+package com.example.exoplayercompose.player;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionUtil;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import java.util.List;
+
+/**
+ * An adaptive {@link ExoTrackSelection} that picks tiers from buffer occupancy, using the
+ * watermarks of a {@link CustomLoadControl}, in the style of BOLA.
+ *
+ * <p>Each track gets a utility of {@code ln(bitrate / lowestBitrate) + 1}, and the track that
+ * maximizes {@code (V * (utility + gamma) - buffered) / bitrate} is chosen. {@code V} and {@code
+ * gamma} are derived so that the lowest track is chosen at the load control's minimum buffer and
+ * the highest one at its maximum buffer.
+ *
+ * <p>It is a hybrid with throughput, like BOLA-O. Below the minimum buffer, and for the initial
+ * selection, it uses the highest track that fits the bandwidth estimate. Above that, an upswitch
+ * never goes beyond the throughput choice or the current track, whichever is higher. A downswitch
+ * is only made while the buffer is draining below the minimum, so short throughput dips ride on
+ * the buffer instead of lowering the quality.
+ */
+public final class BufferBasedTrackSelection extends BaseTrackSelection {
+
+    /** Listener for switch decisions. Called on the playback thread. */
+    public interface Listener {
+
+        /**
+         * Called when the selection switches to another track.
+         *
+         * @param trackGroup The {@link TrackGroup} of the selection.
+         * @param oldFormat The previously selected format.
+         * @param newFormat The newly selected format.
+         * @param rule The {@code RULE_*} that made the decision.
+         * @param bufferedDurationUs The buffered duration at the time of the decision.
+         * @param bitrateEstimate The bandwidth estimate at the time of the decision.
+         */
+        void onTrackSwitch(
+                TrackGroup trackGroup,
+                Format oldFormat,
+                Format newFormat,
+                int rule,
+                long bufferedDurationUs,
+                long bitrateEstimate);
+    }
+
+    /** Factory for {@link BufferBasedTrackSelection} instances. */
+    public static final class Factory implements ExoTrackSelection.Factory {
+
+        private final CustomLoadControl loadControl;
+        private final float bandwidthFraction;
+        @Nullable private final Listener listener;
+
+        /**
+         * @param loadControl The {@link CustomLoadControl} of the player, whose watermarks drive the
+         *     selection.
+         * @param listener A listener for switch decisions, or null.
+         */
+        public Factory(CustomLoadControl loadControl, @Nullable Listener listener) {
+            this(loadControl, DEFAULT_BANDWIDTH_FRACTION, listener);
+        }
+
+        /**
+         * @param loadControl The {@link CustomLoadControl} of the player, whose watermarks drive the
+         *     selection.
+         * @param bandwidthFraction The fraction of the bandwidth estimate the throughput rule uses.
+         * @param listener A listener for switch decisions, or null.
+         */
+        public Factory(
+                CustomLoadControl loadControl, float bandwidthFraction, @Nullable Listener listener) {
+            this.loadControl = loadControl;
+            this.bandwidthFraction = bandwidthFraction;
+            this.listener = listener;
+        }
+
+        @Override
+        public ExoTrackSelection[] createTrackSelections(
+                Definition[] definitions,
+                BandwidthMeter bandwidthMeter,
+                MediaPeriodId mediaPeriodId,
+                Timeline timeline) {
+            return TrackSelectionUtil.createTrackSelectionsForDefinitions(
+                    definitions,
+                    definition -> {
+                        if (definition.tracks.length == 1) {
+                            return new FixedTrackSelection(
+                                    definition.group, definition.tracks[0], definition.type);
+                        }
+                        return new BufferBasedTrackSelection(
+                                definition.group,
+                                definition.tracks,
+                                definition.type,
+                                bandwidthMeter,
+                                loadControl,
+                                bandwidthFraction,
+                                listener,
+                                Clock.DEFAULT);
+                    });
+        }
+    }
+
+    /** The fraction of the bandwidth estimate used by the throughput rule by default. */
+    public static final float DEFAULT_BANDWIDTH_FRACTION = 0.7f;
+
+    /** The decision was made from the bandwidth estimate. */
+    public static final int RULE_THROUGHPUT = 0;
+    /** The decision was made from buffer occupancy. */
+    public static final int RULE_BUFFER = 1;
+
+    private final BandwidthMeter bandwidthMeter;
+    private final CustomLoadControl loadControl;
+    private final float bandwidthFraction;
+    @Nullable private final Listener listener;
+    private final Clock clock;
+    // Utilities of each track, indexed like the tracks (in order of decreasing bitrate).
+    private final double[] utilities;
+
+    private int selectedIndex;
+    private @C.SelectionReason int reason;
+    private int upswitchCount;
+    private int downswitchCount;
+
+    private BufferBasedTrackSelection(
+            TrackGroup group,
+            int[] tracks,
+            int type,
+            BandwidthMeter bandwidthMeter,
+            CustomLoadControl loadControl,
+            float bandwidthFraction,
+            @Nullable Listener listener,
+            Clock clock) {
+        super(group, tracks, type);
+        this.bandwidthMeter = bandwidthMeter;
+        this.loadControl = loadControl;
+        this.bandwidthFraction = bandwidthFraction;
+        this.listener = listener;
+        this.clock = clock;
+        utilities = new double[length];
+        int lowestBitrate = Math.max(1, getBitrate(length - 1));
+        for (int i = 0; i < length; i++) {
+            utilities[i] = Math.log((double) Math.max(1, getBitrate(i)) / lowestBitrate) + 1;
+        }
+        selectedIndex = selectByThroughput(clock.elapsedRealtime());
+        reason = C.SELECTION_REASON_UNKNOWN;
+    }
+
+    /** Returns the number of switches to a higher bitrate made so far. */
+    public int getUpswitchCount() {
+        return upswitchCount;
+    }
+
+    /** Returns the number of switches to a lower bitrate made so far. */
+    public int getDownswitchCount() {
+        return downswitchCount;
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public @C.SelectionReason int getSelectionReason() {
+        return reason;
+    }
+
+    @Nullable
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+
+    @Override
+    public void updateSelectedTrack(
+            long playbackPositionUs,
+            long bufferedDurationUs,
+            long availableDurationUs,
+            List<? extends MediaChunk> queue,
+            MediaChunkIterator[] mediaChunkIterators) {
+        long nowMs = clock.elapsedRealtime();
+        if (reason == C.SELECTION_REASON_UNKNOWN) {
+            // The initial selection, made from throughput as in AdaptiveTrackSelection.
+            reason = C.SELECTION_REASON_INITIAL;
+            selectedIndex = selectByThroughput(nowMs);
+            return;
+        }
+        int previousIndex = selectedIndex;
+        if (!queue.isEmpty()) {
+            // Decide relative to the format being loaded, as AdaptiveTrackSelection does.
+            int queueIndex = indexOf(queue.get(queue.size() - 1).trackFormat);
+            if (queueIndex != C.INDEX_UNSET) {
+                previousIndex = queueIndex;
+            }
+        }
+        long minBufferUs = loadControl.getMinBufferUs();
+        long maxBufferUs = loadControl.getMaxBufferUs();
+        int throughputIndex = selectByThroughput(nowMs);
+        int newIndex;
+        int rule;
+        if (bufferedDurationUs < minBufferUs || maxBufferUs <= minBufferUs) {
+            // The buffer is too low to lean on, so follow the throughput estimate.
+            newIndex = throughputIndex;
+            rule = RULE_THROUGHPUT;
+        } else {
+            int bufferIndex = selectByBuffer(bufferedDurationUs, minBufferUs, maxBufferUs, nowMs);
+            rule = RULE_BUFFER;
+            if (bufferIndex < previousIndex) {
+                // Upswitch, capped so that it isn't ahead of what throughput sustains.
+                newIndex = Math.max(bufferIndex, Math.min(throughputIndex, previousIndex));
+            } else {
+                // Don't downswitch while the buffer is above the low watermark.
+                newIndex = isTrackExcluded(previousIndex, nowMs) ? bufferIndex : previousIndex;
+            }
+        }
+        selectedIndex = newIndex;
+        if (newIndex == previousIndex) {
+            return;
+        }
+        reason = C.SELECTION_REASON_ADAPTIVE;
+        if (newIndex < previousIndex) {
+            upswitchCount++;
+        } else {
+            downswitchCount++;
+        }
+        if (listener != null) {
+            listener.onTrackSwitch(
+                    getTrackGroup(),
+                    getFormat(previousIndex),
+                    getFormat(newIndex),
+                    rule,
+                    bufferedDurationUs,
+                    bandwidthMeter.getBitrateEstimate());
+        }
+    }
+
+    /** Returns the highest non-excluded track that fits the bandwidth estimate, or the lowest. */
+    private int selectByThroughput(long nowMs) {
+        long effectiveBitrate = (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction);
+        int lowestIndex = 0;
+        for (int i = 0; i < length; i++) {
+            if (isTrackExcluded(i, nowMs)) {
+                continue;
+            }
+            if (getBitrate(i) <= effectiveBitrate) {
+                return i;
+            }
+            lowestIndex = i;
+        }
+        return lowestIndex;
+    }
+
+    /** Returns the non-excluded track with the highest BOLA score for the buffer level. */
+    private int selectByBuffer(
+            long bufferedDurationUs, long minBufferUs, long maxBufferUs, long nowMs) {
+        // gamma and V put the lowest track's score on top at minBufferUs and the highest one's at
+        // maxBufferUs.
+        double minBufferS = minBufferUs / (double) C.MICROS_PER_SECOND;
+        double maxBufferS = maxBufferUs / (double) C.MICROS_PER_SECOND;
+        double gamma = (utilities[0] - 1) / (maxBufferS / minBufferS - 1);
+        double v = minBufferS / Math.max(gamma, 1e-6);
+        double bufferedS = bufferedDurationUs / (double) C.MICROS_PER_SECOND;
+        int bestIndex = C.INDEX_UNSET;
+        double bestScore = 0;
+        for (int i = 0; i < length; i++) {
+            if (isTrackExcluded(i, nowMs)) {
+                continue;
+            }
+            double score = (v * (utilities[i] + gamma) - bufferedS) / Math.max(1, getBitrate(i));
+            if (bestIndex == C.INDEX_UNSET || score > bestScore) {
+                bestIndex = i;
+                bestScore = score;
+            }
+        }
+        return bestIndex == C.INDEX_UNSET ? length - 1 : bestIndex;
+    }
+
+    private int getBitrate(int index) {
+        int bitrate = getFormat(index).bitrate;
+        return bitrate == Format.NO_VALUE ? 0 : bitrate;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.exoplayercompose.player;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.PriorityTaskManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits one global buffer budget between the {@link CustomLoadControl} instances of several
+ * concurrent players.
+ *
+ * <p>Members join with a loading priority, where higher values are more important (as in {@link
+ * PriorityTaskManager}). The members with the highest priority share {@link #foregroundShare} of the
+ * budget, the others split the rest. Inactive members, such as idle pooled players, get no share
+ * and aren't counted. Loads are also serialized through a shared {@link
+ * PriorityTaskManager}, so a lower-priority member only loads while no higher-priority member is
+ * loading.
+ */
+public final class BufferBudgetCoordinator {
+
+    /** The default fraction of the budget given to the highest-priority members. */
+    public static final float DEFAULT_FOREGROUND_SHARE = 0.7f;
+
+    /** A {@link CustomLoadControl}'s membership in a {@link BufferBudgetCoordinator}. */
+    public final class Member {
+
+        // Written by the coordinator under its lock, read by the member's playback thread.
+        private volatile int priority;
+        private volatile int budgetBytes;
+        private boolean active;
+
+        private Member(int priority) {
+            this.priority = priority;
+            active = true;
+        }
+
+        /** Returns the loading priority of this member. */
+        public int getPriority() {
+            return priority;
+        }
+
+        /** Returns the share of the global budget currently assigned to this member, in bytes. */
+        public int getBudgetBytes() {
+            return budgetBytes;
+        }
+
+        /**
+         * Changes the loading priority of this member, for example when its player moves to the
+         * foreground, and rebalances the budget.
+         */
+        public void setPriority(int priority) {
+            synchronized (BufferBudgetCoordinator.this) {
+                this.priority = priority;
+                rebalance();
+            }
+        }
+
+        /**
+         * Sets whether this member takes part in the split, and rebalances the budget. An inactive
+         * member, for example the load control of an idle pooled player, gets no share, so the
+         * active members split the whole budget. Members are active when they join.
+         */
+        public void setActive(boolean active) {
+            synchronized (BufferBudgetCoordinator.this) {
+                this.active = active;
+                rebalance();
+            }
+        }
+
+        /** Leaves the coordinator and hands this member's share back to the others. */
+        public void leave() {
+            synchronized (BufferBudgetCoordinator.this) {
+                members.remove(this);
+                rebalance();
+            }
+        }
+    }
+
+    private final int totalBudgetBytes;
+    private final float foregroundShare;
+    private final PriorityTaskManager priorityTaskManager;
+    private final List<Member> members;
+
+    /**
+     * @param totalBudgetBytes The budget shared by all members, in bytes.
+     */
+    public BufferBudgetCoordinator(int totalBudgetBytes) {
+        this(totalBudgetBytes, DEFAULT_FOREGROUND_SHARE);
+    }
+
+    /**
+     * @param totalBudgetBytes The budget shared by all members, in bytes.
+     * @param foregroundShare The fraction of the budget given to the highest-priority members when
+     *     there are lower-priority ones.
+     */
+    public BufferBudgetCoordinator(int totalBudgetBytes, float foregroundShare) {
+        Assertions.checkArgument(foregroundShare > 0 && foregroundShare <= 1);
+        this.totalBudgetBytes = totalBudgetBytes;
+        this.foregroundShare = foregroundShare;
+        priorityTaskManager = new PriorityTaskManager();
+        members = new ArrayList<>();
+    }
+
+    /** Returns the {@link PriorityTaskManager} through which members serialize their loads. */
+    public PriorityTaskManager getPriorityTaskManager() {
+        return priorityTaskManager;
+    }
+
+    public int getTotalBudgetBytes() {
+        return totalBudgetBytes;
+    }
+
+    /**
+     * Adds a member and rebalances the budget.
+     *
+     * @param priority The loading priority of the member.
+     * @return The {@link Member}.
+     */
+    public synchronized Member join(int priority) {
+        Member member = new Member(priority);
+        members.add(member);
+        rebalance();
+        return member;
+    }
+
+    private void rebalance() {
+        int highestPriority = Integer.MIN_VALUE;
+        int activeCount = 0;
+        for (Member member : members) {
+            if (member.active) {
+                highestPriority = Math.max(highestPriority, member.priority);
+                activeCount++;
+            }
+        }
+        int foregroundCount = 0;
+        for (Member member : members) {
+            if (member.active && member.priority == highestPriority) {
+                foregroundCount++;
+            }
+        }
+        int backgroundCount = activeCount - foregroundCount;
+        long foregroundBudget =
+                backgroundCount == 0 ? totalBudgetBytes : (long) (totalBudgetBytes * foregroundShare);
+        long backgroundBudget = totalBudgetBytes - foregroundBudget;
+        for (Member member : members) {
+            if (!member.active) {
+                member.budgetBytes = 0;
+                continue;
+            }
+            member.budgetBytes =
+                    member.priority == highestPriority
+                            ? (int) (foregroundBudget / foregroundCount)
+                            : (int) (backgroundBudget / backgroundCount);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.exoplayercompose.player;
+
+/**
+ * Computes the min/max buffer durations used by {@link CustomLoadControl} from the throughput
+ * observed during the current playback session.
+ */
+public interface BufferPolicy {
+
+    /** Called when a new playback session starts, before any throughput has been sampled. */
+    default void onSessionStarted() {}
+
+    /**
+     * Returns the buffer targets to use for the given throughput statistics.
+     *
+     * @param configuredMinBufferUs The minimum buffer duration configured on the load control, in
+     *     microseconds.
+     * @param configuredMaxBufferUs The maximum buffer duration configured on the load control, in
+     *     microseconds.
+     * @param stats The throughput observed during the current session.
+     * @return The {@link BufferTargets} to apply.
+     */
+    BufferTargets computeTargets(
+            long configuredMinBufferUs, long configuredMaxBufferUs, ThroughputStats stats);
+
+    /** The min/max buffer durations computed by a {@link BufferPolicy}. */
+    final class BufferTargets {
+
+        /** The minimum duration of media to keep buffered, in microseconds. */
+        public final long minBufferUs;
+
+        /** The maximum duration of media to buffer, in microseconds. */
+        public final long maxBufferUs;
+
+        public BufferTargets(long minBufferUs, long maxBufferUs) {
+            this.minBufferUs = minBufferUs;
+            this.maxBufferUs = Math.max(minBufferUs, maxBufferUs);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.exoplayercompose.player;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.util.Assertions;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single-producer, single-consumer ring buffer of load control samples.
+ *
+ * <p>The playback thread {@link #record records} samples without locking or allocating. A consumer
+ * {@link #drain drains} them in batches, either on a {@link Handler} via {@link #start} or from a
+ * coroutine calling {@link #drain} periodically, and receives each sample plus a {@link Window}
+ * summary. Samples recorded while the buffer is full are dropped and counted.
+ */
+public final class BufferTelemetry {
+
+    /** The default number of samples the ring buffer holds. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** The default interval between two drains when started on a {@link Handler}. */
+    public static final int DEFAULT_WINDOW_MS = 1000;
+
+    /** Receives drained samples on the consumer thread. */
+    public interface Listener {
+
+        /** Called for each drained sample, in the order they were recorded. */
+        default void onSample(
+                long timeMs, long bufferedDurationUs, int allocatedBytes, boolean isLoading) {}
+
+        /**
+         * Called once per non-empty drain with a summary of the drained samples. The {@link Window}
+         * is reused by the next drain and must not be retained.
+         */
+        void onWindow(Window window);
+    }
+
+    /** A summary of the samples drained together. */
+    public static final class Window {
+
+        public int sampleCount;
+        /** The number of samples dropped because the ring buffer was full, since the last window. */
+        public long droppedSampleCount;
+        public long startTimeMs;
+        public long endTimeMs;
+        public long minBufferedDurationUs;
+        public long maxBufferedDurationUs;
+        public long p50BufferedDurationUs;
+        public long p90BufferedDurationUs;
+        public long p99BufferedDurationUs;
+        public int minAllocatedBytes;
+        public int maxAllocatedBytes;
+        /** The fraction of samples taken while the load control was loading. */
+        public float loadingFraction;
+    }
+
+    private final int mask;
+    private final long[] timesMs;
+    private final long[] bufferedDurationsUs;
+    private final int[] allocatedBytes;
+    private final boolean[] loading;
+    private final AtomicLong writeIndex;
+    private final AtomicLong readIndex;
+    private final AtomicLong droppedSampleCount;
+
+    // Consumer-side scratch state, reused by every drain.
+    private final long[] sortedBufferedDurationsUs;
+    private final Window window;
+    private long reportedDroppedSampleCount;
+
+    @Nullable private Handler handler;
+    @Nullable private Listener listener;
+    @Nullable private volatile Runnable drainRunnable;
+
+    public BufferTelemetry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of samples the ring buffer holds, which must be a power of two.
+     */
+    public BufferTelemetry(int capacity) {
+        Assertions.checkArgument(
+                capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be a power of two");
+        mask = capacity - 1;
+        timesMs = new long[capacity];
+        bufferedDurationsUs = new long[capacity];
+        allocatedBytes = new int[capacity];
+        loading = new boolean[capacity];
+        sortedBufferedDurationsUs = new long[capacity];
+        writeIndex = new AtomicLong();
+        readIndex = new AtomicLong();
+        droppedSampleCount = new AtomicLong();
+        window = new Window();
+    }
+
+    /**
+     * Records a sample. Must only be called from the producer thread.
+     *
+     * @return Whether the sample was recorded, false if the ring buffer was full.
+     */
+    public boolean record(
+            long timeMs, long bufferedDurationUs, int allocatedBytes, boolean isLoading) {
+        long write = writeIndex.get();
+        if (write - readIndex.get() > mask) {
+            droppedSampleCount.incrementAndGet();
+            return false;
+        }
+        int index = (int) (write & mask);
+        timesMs[index] = timeMs;
+        bufferedDurationsUs[index] = bufferedDurationUs;
+        this.allocatedBytes[index] = allocatedBytes;
+        loading[index] = isLoading;
+        // Publishes the sample to the consumer.
+        writeIndex.lazySet(write + 1);
+        return true;
+    }
+
+    /**
+     * Drains all recorded samples to the listener. Must only be called from a single consumer thread.
+     *
+     * @return The number of drained samples.
+     */
+    public int drain(Listener listener) {
+        long read = readIndex.get();
+        long write = writeIndex.get();
+        int count = (int) (write - read);
+        if (count == 0) {
+            return 0;
+        }
+        Window window = this.window;
+        window.sampleCount = count;
+        window.minBufferedDurationUs = Long.MAX_VALUE;
+        window.maxBufferedDurationUs = Long.MIN_VALUE;
+        window.minAllocatedBytes = Integer.MAX_VALUE;
+        window.maxAllocatedBytes = Integer.MIN_VALUE;
+        int loadingCount = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((read + i) & mask);
+            long timeMs = timesMs[index];
+            long bufferedDurationUs = bufferedDurationsUs[index];
+            int bytes = allocatedBytes[index];
+            boolean isLoading = loading[index];
+            if (i == 0) {
+                window.startTimeMs = timeMs;
+            }
+            window.endTimeMs = timeMs;
+            window.minBufferedDurationUs = min(window.minBufferedDurationUs, bufferedDurationUs);
+            window.maxBufferedDurationUs = max(window.maxBufferedDurationUs, bufferedDurationUs);
+            window.minAllocatedBytes = min(window.minAllocatedBytes, bytes);
+            window.maxAllocatedBytes = max(window.maxAllocatedBytes, bytes);
+            loadingCount += isLoading ? 1 : 0;
+            sortedBufferedDurationsUs[i] = bufferedDurationUs;
+            listener.onSample(timeMs, bufferedDurationUs, bytes, isLoading);
+        }
+        // Frees the slots for the producer.
+        readIndex.lazySet(write);
+
+        Arrays.sort(sortedBufferedDurationsUs, 0, count);
+        window.p50BufferedDurationUs = percentile(count, 0.5f);
+        window.p90BufferedDurationUs = percentile(count, 0.9f);
+        window.p99BufferedDurationUs = percentile(count, 0.99f);
+        window.loadingFraction = (float) loadingCount / count;
+        long droppedSampleCount = this.droppedSampleCount.get();
+        window.droppedSampleCount = droppedSampleCount - reportedDroppedSampleCount;
+        reportedDroppedSampleCount = droppedSampleCount;
+        listener.onWindow(window);
+        return count;
+    }
+
+    /**
+     * Drains the samples on {@code handler} every {@code windowMs} until {@link #stop()} is called.
+     *
+     * @param handler The {@link Handler} whose thread becomes the consumer thread.
+     * @param windowMs The interval between two drains, in milliseconds.
+     * @param listener The {@link Listener} to drain to.
+     */
+    public synchronized void start(Handler handler, long windowMs, Listener listener) {
+        stop();
+        Runnable drainRunnable =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        drain(listener);
+                        if (BufferTelemetry.this.drainRunnable == this) {
+                            handler.postDelayed(this, windowMs);
+                        }
+                    }
+                };
+        this.handler = handler;
+        this.listener = listener;
+        this.drainRunnable = drainRunnable;
+        handler.postDelayed(drainRunnable, windowMs);
+    }
+
+    /** Stops draining on the {@link Handler} passed to {@link #start}, after a final drain. */
+    public synchronized void stop() {
+        Handler handler = this.handler;
+        Runnable drainRunnable = this.drainRunnable;
+        Listener listener = this.listener;
+        this.handler = null;
+        this.drainRunnable = null;
+        this.listener = null;
+        if (handler != null && drainRunnable != null && listener != null) {
+            handler.removeCallbacks(drainRunnable);
+            handler.post(() -> drain(listener));
+        }
+    }
+
+    private long percentile(int count, float percentile) {
+        return sortedBufferedDurationsUs[min(count - 1, (int) (percentile * count))];
+    }
+}
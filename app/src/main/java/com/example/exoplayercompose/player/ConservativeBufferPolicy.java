@@ -0,0 +1,14 @@
+package com.example.exoplayercompose.player;
+
+/**
+ * A {@link BufferPolicy} that always uses the buffer durations configured on the load control,
+ * regardless of the observed throughput.
+ */
+public final class ConservativeBufferPolicy implements BufferPolicy {
+
+    @Override
+    public BufferTargets computeTargets(
+            long configuredMinBufferUs, long configuredMaxBufferUs, ThroughputStats stats) {
+        return new BufferTargets(configuredMinBufferUs, configuredMaxBufferUs);
+    }
+}
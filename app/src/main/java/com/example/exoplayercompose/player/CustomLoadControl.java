@@ -16,21 +16,28 @@
 
 package com.example.exoplayercompose.player;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.Renderer;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.PriorityTaskManager;
 import com.google.android.exoplayer2.util.Util;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_AUDIO_BUFFER_SIZE;
 import static com.google.android.exoplayer2.DefaultLoadControl.DEFAULT_CAMERA_MOTION_BUFFER_SIZE;
@@ -45,7 +52,7 @@ import static java.lang.Math.min;
 /**
  * The default {@link LoadControl} implementation.
  */
-public final class CustomLoadControl implements LoadControl {
+public final class CustomLoadControl implements LoadControl, ComponentCallbacks2 {
 
     /**
      * The default minimum duration of media that the player will attempt to ensure is buffered at all
@@ -58,7 +65,7 @@ public final class CustomLoadControl implements LoadControl {
      * For playbacks with video, this is also the default minimum duration of media that the player
      * will attempt to ensure is buffered.
      */
-    public static int DEFAULT_MAX_BUFFER_MS = 32000; // 8 chuncks each of 4s
+    public static volatile int DEFAULT_MAX_BUFFER_MS = 32000; // 8 chuncks each of 4s
 
     /**
      * The default duration of media that must be buffered for playback to start or resume following a
@@ -72,10 +79,18 @@ public final class CustomLoadControl implements LoadControl {
      */
     public static int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 8000; //2 chuncks each of 4s
 
+    /**
+     * Sets the maximum buffer duration used by builders created afterwards.
+     *
+     * @deprecated Use {@link #setConfig} to change the buffer durations of a running player.
+     */
+    @Deprecated
     public static void setMaxBufferMs(int maxBufferMs){
         DEFAULT_MAX_BUFFER_MS = maxBufferMs;
     }
 
+    /** @deprecated Use {@link #setConfig} to change the buffer durations of a running player. */
+    @Deprecated
     public static void resetToDefaultMaxBufferMs(){
         DEFAULT_MAX_BUFFER_MS = 32000;
     }
@@ -97,6 +112,12 @@ public final class CustomLoadControl implements LoadControl {
      */
     public static final int LOADING_PRIORITY = 0;
 
+    /**
+     * Priority for media loading of players that are only preloading, such as the next items of a
+     * feed. Used with a {@link BufferBudgetCoordinator}.
+     */
+    public static final int PRELOADING_PRIORITY = LOADING_PRIORITY - 1;
+
     /** The default back buffer duration in milliseconds. */
     public static final int DEFAULT_BACK_BUFFER_DURATION_MS = 0;
 
@@ -106,10 +127,18 @@ public final class CustomLoadControl implements LoadControl {
     private EventListener bufferedDurationListener;
 
     /**
-     * A {@link Handler}
+     * A {@link Handler} on which the {@link #bufferTelemetry} is drained to the {@link
+     * #bufferedDurationListener}
      */
     private Handler eventHandler;
 
+    @Nullable private BufferTelemetry bufferTelemetry;
+    private long telemetryWindowMs;
+    private final TelemetryListener telemetryListener = new TelemetryListener();
+    // The last percentage computed by shouldStartPlayback, shifted left by one with the rebuffering
+    // flag in the lowest bit, handed to the telemetry consumer thread.
+    private volatile long pendingPercentageUpdate = C.INDEX_UNSET;
+
     private static final int ABOVE_HIGH_WATERMARK = 0;
     private static final int BETWEEN_WATERMARKS = 1;
     private static final int BELOW_LOW_WATERMARK = 2;
@@ -120,13 +149,26 @@ public final class CustomLoadControl implements LoadControl {
 //    private long maxBufferUs;
 //    private long bufferForPlaybackUs;
 //    private long bufferForPlaybackAfterRebufferUs;
-    private PriorityTaskManager priorityTaskManager;
+    @Nullable private PriorityTaskManager priorityTaskManager;
+    @Nullable private BufferBudgetCoordinator.Member budgetMember;
+    // The priority registered with the priorityTaskManager, if isPriorityRegistered.
+    private boolean isPriorityRegistered;
+    private int registeredPriority;
+    private int appliedBudgetBytes = C.LENGTH_UNSET;
+
+    private boolean predictiveStart;
+    private float predictiveStartSafetyFactor;
+    private long predictiveStartMinBufferUs;
+    private long predictiveStartHorizonUs;
 
     private int targetBufferSize;
     private boolean isBuffering;
 
     private final String TAG = "Logix CustomLoadControl";
 
+    /** The default byte cap for a back buffer set with {@link Builder#setSeekBackBuffer}. */
+    public static final int DEFAULT_BACK_BUFFER_MAX_BYTES = 320 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
+
     /** The default for whether the back buffer is retained from the previous keyframe. */
     public static final boolean DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME = false;
 
@@ -155,11 +197,56 @@ public final class CustomLoadControl implements LoadControl {
      */
     public static final int DEFAULT_MIN_BUFFER_SIZE = 200 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
 
+    /**
+     * The default factor applied to the bitrate-derived target buffer size, to absorb VBR peaks and
+     * container overhead.
+     */
+    public static final float DEFAULT_BITRATE_HEADROOM_FACTOR = 1.5f;
+
+    /** No memory pressure, the configured budgets apply. */
+    public static final int MEMORY_PRESSURE_NONE = 0;
+    /** Moderate memory pressure, the budgets are scaled down by a quarter. */
+    public static final int MEMORY_PRESSURE_MODERATE = 1;
+    /** Low memory, the budgets are halved. */
+    public static final int MEMORY_PRESSURE_LOW = 2;
+    /** Critical memory pressure, the budgets are cut to a quarter. */
+    public static final int MEMORY_PRESSURE_CRITICAL = 3;
+
+    /** The budget scale factor for each {@code MEMORY_PRESSURE_*} level. */
+    private static final float[] MEMORY_PRESSURE_SCALES = {1f, 0.75f, 0.5f, 0.25f};
+
+    /**
+     * The default time without a new {@link #onTrimMemory} call after which the memory pressure
+     * level is lowered by one step, in milliseconds.
+     */
+    public static final int DEFAULT_MEMORY_PRESSURE_RECOVERY_MS = 30000;
+
+    /** Playback was held because none of the start conditions below was met. */
+    public static final int START_REASON_NONE = -1;
+    /** Playback started because the fixed buffer-for-playback duration was reached. */
+    public static final int START_REASON_FIXED_THRESHOLD = 0;
+    /** Playback started because the target buffer size was reached. */
+    public static final int START_REASON_TARGET_BUFFER_BYTES = 1;
+    /** Playback started because the measured throughput predicts the buffer won't run dry. */
+    public static final int START_REASON_PREDICTED_SAFE = 2;
+
+    /** The default fraction of the bandwidth estimate trusted by the predictive start. */
+    public static final float DEFAULT_PREDICTIVE_START_SAFETY_FACTOR = 0.7f;
+
+    /** The default minimum buffered duration before a predictive start, in milliseconds. */
+    public static final int DEFAULT_PREDICTIVE_START_MIN_BUFFER_MS = 500;
+
+    /**
+     * The default playout duration over which the predictive start requires the buffer not to run
+     * dry, in milliseconds.
+     */
+    public static final int DEFAULT_PREDICTIVE_START_HORIZON_MS = 30000;
+
     /** Builder for {@link CustomLoadControl}. */
     public static final class Builder {
 
         @Nullable
-        private DefaultAllocator allocator;
+        private BufferAllocator allocator;
         private int minBufferMs;
         private int maxBufferMs;
         private int bufferForPlaybackMs;
@@ -168,7 +255,26 @@ public final class CustomLoadControl implements LoadControl {
         private boolean prioritizeTimeOverSizeThresholds;
         private int backBufferDurationMs;
         private boolean retainBackBufferFromKeyframe;
+        private int backBufferMaxBytes;
         private boolean buildCalled;
+        private BufferPolicy bufferPolicy;
+        @Nullable
+        private BandwidthMeter bandwidthMeter;
+        private boolean bitrateBasedTargetBufferBytes;
+        private float bitrateHeadroomFactor;
+        @Nullable
+        private Context memoryPressureContext;
+        private int memoryPressureRecoveryMs;
+        @Nullable
+        private Handler eventHandler;
+        private int telemetryWindowMs;
+        @Nullable
+        private BufferBudgetCoordinator bufferBudgetCoordinator;
+        private int loadingPriority;
+        private boolean predictiveStart;
+        private float predictiveStartSafetyFactor;
+        private int predictiveStartMinBufferMs;
+        private int predictiveStartHorizonMs;
 
 
         private EventListener bufferedDurationListener;
@@ -183,6 +289,14 @@ public final class CustomLoadControl implements LoadControl {
             prioritizeTimeOverSizeThresholds = DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS;
             backBufferDurationMs = DEFAULT_BACK_BUFFER_DURATION_MS;
             retainBackBufferFromKeyframe = DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME;
+            backBufferMaxBytes = C.LENGTH_UNSET;
+            bufferPolicy = new ConservativeBufferPolicy();
+            bitrateHeadroomFactor = DEFAULT_BITRATE_HEADROOM_FACTOR;
+            memoryPressureRecoveryMs = DEFAULT_MEMORY_PRESSURE_RECOVERY_MS;
+            loadingPriority = LOADING_PRIORITY;
+            predictiveStartSafetyFactor = DEFAULT_PREDICTIVE_START_SAFETY_FACTOR;
+            predictiveStartMinBufferMs = DEFAULT_PREDICTIVE_START_MIN_BUFFER_MS;
+            predictiveStartHorizonMs = DEFAULT_PREDICTIVE_START_HORIZON_MS;
         }
 
         /**
@@ -193,6 +307,17 @@ public final class CustomLoadControl implements LoadControl {
          * @throws IllegalStateException If {@link #build()} has already been called.
          */
         public Builder setAllocator(DefaultAllocator allocator) {
+            return setAllocator(new DefaultBufferAllocator(allocator));
+        }
+
+        /**
+         * Sets the {@link BufferAllocator} used by the loader, for example a {@link PooledAllocator}.
+         *
+         * @param allocator The {@link BufferAllocator}.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setAllocator(BufferAllocator allocator) {
             checkState(!buildCalled);
             this.allocator = allocator;
             return this;
@@ -256,6 +381,118 @@ public final class CustomLoadControl implements LoadControl {
             return this;
         }
 
+        /**
+         * Sets whether the target buffer size is derived from the bitrate of the selected formats
+         * instead of the fixed per-track-type sizes. Each selected track contributes its bitrate
+         * (the peak bitrate if known) times the maximum buffer duration, scaled by {@code
+         * headroomFactor}. The target is recomputed whenever an adaptive selection switches format.
+         * Tracks with an unknown bitrate fall back to the fixed size for their type. Has no effect
+         * if a target is set with {@link #setTargetBufferBytes}.
+         *
+         * @param bitrateBasedTargetBufferBytes Whether to derive the target from the bitrate.
+         * @param headroomFactor The factor applied to the bitrate-derived size.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setBitrateBasedTargetBufferBytes(
+                boolean bitrateBasedTargetBufferBytes, float headroomFactor) {
+            checkState(!buildCalled);
+            Assertions.checkArgument(headroomFactor >= 1, "headroomFactor cannot be less than 1");
+            this.bitrateBasedTargetBufferBytes = bitrateBasedTargetBufferBytes;
+            this.bitrateHeadroomFactor = headroomFactor;
+            return this;
+        }
+
+        /**
+         * Enables the predictive start, which starts or resumes playback before the fixed
+         * buffer-for-playback duration is reached if the {@link BandwidthMeter} estimate, scaled by
+         * {@code safetyFactor}, predicts that the buffer won't run dry during the next {@code
+         * horizonMs} of playout at the bitrate of the selected formats. Requires {@link
+         * #setBandwidthMeter}. Every start decision is reported through {@link
+         * EventListener#onPlaybackStartDecision}.
+         *
+         * @param safetyFactor The fraction of the bandwidth estimate to trust, in (0, 1].
+         * @param minBufferMs The minimum buffered duration before a predictive start, in
+         *     milliseconds.
+         * @param horizonMs The playout duration over which the buffer must not run dry, in
+         *     milliseconds.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setPredictiveStart(float safetyFactor, int minBufferMs, int horizonMs) {
+            checkState(!buildCalled);
+            Assertions.checkArgument(
+                    safetyFactor > 0 && safetyFactor <= 1, "safetyFactor must be in (0, 1]");
+            assertGreaterOrEqual(minBufferMs, 0, "minBufferMs", "0");
+            assertGreaterOrEqual(horizonMs, minBufferMs, "horizonMs", "minBufferMs");
+            this.predictiveStart = true;
+            this.predictiveStartSafetyFactor = safetyFactor;
+            this.predictiveStartMinBufferMs = minBufferMs;
+            this.predictiveStartHorizonMs = horizonMs;
+            return this;
+        }
+
+        /**
+         * Makes the load control join a {@link BufferBudgetCoordinator} shared with other players. The
+         * target buffer size is then capped by the member's share of the global budget, and loads are
+         * serialized by priority through the coordinator's {@link PriorityTaskManager}. The load
+         * control leaves the coordinator when the player is released.
+         *
+         * @param bufferBudgetCoordinator The {@link BufferBudgetCoordinator}.
+         * @param loadingPriority The initial loading priority, usually {@link #LOADING_PRIORITY} for
+         *     the foreground player and {@link #PRELOADING_PRIORITY} for the others.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setBufferBudgetCoordinator(
+                BufferBudgetCoordinator bufferBudgetCoordinator, int loadingPriority) {
+            checkState(!buildCalled);
+            this.bufferBudgetCoordinator = bufferBudgetCoordinator;
+            this.loadingPriority = loadingPriority;
+            return this;
+        }
+
+        /**
+         * Makes the load control record its buffered duration, allocated bytes and loading state into
+         * a lock-free {@link BufferTelemetry} ring buffer on the playback thread instead of calling the
+         * {@link EventListener} synchronously. The samples are drained to the listener on {@code
+         * eventHandler} every {@code windowMs}, followed by a {@link BufferTelemetry.Window} summary.
+         *
+         * @param eventHandler The {@link Handler} on which the {@link EventListener} is called.
+         * @param windowMs The interval between two drains, in milliseconds.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setBufferTelemetry(Handler eventHandler, int windowMs) {
+            checkState(!buildCalled);
+            assertGreaterOrEqual(windowMs, 1, "windowMs", "1");
+            this.eventHandler = eventHandler;
+            this.telemetryWindowMs = windowMs;
+            return this;
+        }
+
+        /**
+         * Makes the load control react to {@link ComponentCallbacks2#onTrimMemory} levels. The load
+         * control registers itself with the application context on {@link #build()} and unregisters
+         * when the player is released. Under pressure the target buffer size and the maximum buffer
+         * duration are scaled down in steps and the allocator is trimmed. Each step is undone after
+         * {@code recoveryMs} without a new trim request. Memory the allocator keeps outside the
+         * buffer follows the same levels, see {@link BufferAllocator#trimOnMemoryPressure}.
+         *
+         * @param context Any {@link Context}, its application context is used.
+         * @param recoveryMs The time without a trim request after which the pressure level is lowered
+         *     by one step, in milliseconds.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setTrimOnMemoryPressure(Context context, int recoveryMs) {
+            checkState(!buildCalled);
+            assertGreaterOrEqual(recoveryMs, 0, "recoveryMs", "0");
+            this.memoryPressureContext = context.getApplicationContext();
+            this.memoryPressureRecoveryMs = recoveryMs;
+            return this;
+        }
+
         /**
          * Sets whether the load control prioritizes buffer time constraints over buffer size
          * constraints.
@@ -289,6 +526,59 @@ public final class CustomLoadControl implements LoadControl {
             return this;
         }
 
+        /**
+         * Sets the {@link BufferPolicy} that computes the min/max buffer durations from the observed
+         * throughput. The durations passed to {@link #setBufferDurationsMs} are the policy's inputs.
+         * Defaults to {@link ConservativeBufferPolicy}.
+         *
+         * @param bufferPolicy The {@link BufferPolicy}.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setBufferPolicy(BufferPolicy bufferPolicy) {
+            checkState(!buildCalled);
+            this.bufferPolicy = bufferPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the {@link BandwidthMeter} whose estimates are fed to the {@link BufferPolicy}. This
+         * should be the same instance that is passed to the player. If unset, the policy only ever
+         * sees an empty {@link ThroughputStats}.
+         *
+         * @param bandwidthMeter The {@link BandwidthMeter}.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setBandwidthMeter(BandwidthMeter bandwidthMeter) {
+            checkState(!buildCalled);
+            this.bandwidthMeter = bandwidthMeter;
+            return this;
+        }
+
+        /**
+         * Keeps a back buffer sized to the player's seek-back increment, so that seeking back by that
+         * increment is served from memory instead of the network. The back buffer is accounted
+         * separately from the forward buffer, up to {@code maxBackBufferBytes}: it doesn't count
+         * against the target buffer size while within that cap. Its allowance is withdrawn first
+         * under memory pressure. Bytes served from the back buffer on seeks are reported through
+         * {@link EventListener#onBackBufferSeek}.
+         *
+         * @param seekBackIncrementMs The seek-back increment of the player, in milliseconds.
+         * @param maxBackBufferBytes The maximum number of bytes of back buffer accounted separately.
+         * @return This builder, for convenience.
+         * @throws IllegalStateException If {@link #build()} has already been called.
+         */
+        public Builder setSeekBackBuffer(int seekBackIncrementMs, int maxBackBufferBytes) {
+            checkState(!buildCalled);
+            assertGreaterOrEqual(seekBackIncrementMs, 0, "seekBackIncrementMs", "0");
+            assertGreaterOrEqual(maxBackBufferBytes, 0, "maxBackBufferBytes", "0");
+            this.backBufferDurationMs = seekBackIncrementMs;
+            this.retainBackBufferFromKeyframe = true;
+            this.backBufferMaxBytes = maxBackBufferBytes;
+            return this;
+        }
+
         /** @deprecated use {@link #build} instead. */
         @Deprecated
         public CustomLoadControl createDefaultLoadControl() {
@@ -300,9 +590,10 @@ public final class CustomLoadControl implements LoadControl {
             checkState(!buildCalled);
             buildCalled = true;
             if (allocator == null) {
-                allocator = new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+                allocator = new DefaultBufferAllocator(
+                        new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE));
             }
-            return new CustomLoadControl(
+            CustomLoadControl loadControl = new CustomLoadControl(
                     allocator,
                     minBufferMs,
                     maxBufferMs,
@@ -312,29 +603,91 @@ public final class CustomLoadControl implements LoadControl {
                     prioritizeTimeOverSizeThresholds,
                     backBufferDurationMs,
                     retainBackBufferFromKeyframe,
-                    bufferedDurationListener);
+                    bufferedDurationListener,
+                    bufferPolicy,
+                    bandwidthMeter,
+                    bitrateBasedTargetBufferBytes,
+                    bitrateHeadroomFactor);
+            if (eventHandler != null && bufferedDurationListener != null) {
+                loadControl.enableBufferTelemetry(eventHandler, telemetryWindowMs);
+            }
+            if (bufferBudgetCoordinator != null) {
+                loadControl.priorityTaskManager = bufferBudgetCoordinator.getPriorityTaskManager();
+                loadControl.budgetMember = bufferBudgetCoordinator.join(loadingPriority);
+            }
+            loadControl.backBufferMaxBytes = backBufferMaxBytes;
+            if (predictiveStart) {
+                loadControl.predictiveStart = true;
+                loadControl.predictiveStartSafetyFactor = predictiveStartSafetyFactor;
+                loadControl.predictiveStartMinBufferUs = C.msToUs(predictiveStartMinBufferMs);
+                loadControl.predictiveStartHorizonUs = C.msToUs(predictiveStartHorizonMs);
+            }
+            if (memoryPressureContext != null) {
+                loadControl.memoryPressureContext = memoryPressureContext;
+                loadControl.memoryPressureRecoveryMs = memoryPressureRecoveryMs;
+                memoryPressureContext.registerComponentCallbacks(loadControl);
+                allocator.trimOnMemoryPressure(memoryPressureContext, memoryPressureRecoveryMs);
+            }
+            return loadControl;
         }
     }
 
-    private final DefaultAllocator allocator;
+    private final BufferAllocator allocator;
 
-    private final long minBufferUs;
-    private final long maxBufferUs;
-    private final long bufferForPlaybackUs;
-    private final long bufferForPlaybackAfterRebufferUs;
-    private final int targetBufferBytesOverwrite;
-    private final boolean prioritizeTimeOverSizeThresholds;
+    // Written by setConfig on any thread, read once per call on the playback thread.
+    private volatile LoadControlConfig config;
+    // The config the playback-thread state below was derived from.
+    private LoadControlConfig appliedConfig;
     private final long backBufferDurationUs;
     private final boolean retainBackBufferFromKeyframe;
-
+    private int backBufferMaxBytes = C.LENGTH_UNSET;
+    // Playback-thread estimate of the back buffer, from the playback positions seen since the last
+    // discontinuity.
+    private long lastPlaybackPositionUs = C.TIME_UNSET;
+    private long backBufferedDurationUs;
+    private long backBufferBytes;
+    private long backBufferBytesSaved;
+    // Whether a held start was reported since playback last started, so that the calls made while
+    // waiting for the buffer report it only once. Only accessed on the playback thread.
+    private boolean heldStartReported;
+
+    private BufferPolicy bufferPolicy;
+    @Nullable private BandwidthMeter bandwidthMeter;
+    private final ThroughputStats throughputStats;
+    private long lastBitrateEstimate;
+    private boolean bitrateBasedTargetBufferBytes;
+    private float bitrateHeadroomFactor;
+
+    @Nullable private Renderer[] selectedRenderers;
+    @Nullable private ExoTrackSelection[] trackSelections;
+    private int[] sizedSelectedIndices;
+    private long sizedMaxBufferUs;
+
+    @Nullable private Context memoryPressureContext;
+    private long memoryPressureRecoveryMs;
+    // Raised on the main thread by onTrimMemory, lowered on the playback thread by the recovery.
+    private final AtomicInteger requestedMemoryPressureLevel;
+    private volatile long lastTrimMemoryTimeMs;
+    private int memoryPressureLevel;
+
+    private long minBufferUs;
+    private long maxBufferUs;
     private int targetBufferBytes;
     private boolean isLoading;
+    // isLoading, published for isLoading().
+    private volatile boolean publishedIsLoading;
+    @Nullable private volatile LoadingListener loadingListener;
+    // The last effective maximum buffer duration, published for getMaxBufferUs().
+    private volatile long effectiveMaxBufferUs;
+    private long publishedMaxBufferUs;
+    // The last effective minimum buffer duration, published for getMinBufferUs().
+    private volatile long effectiveMinBufferUs;
 
     /** Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class. */
     @SuppressWarnings("deprecation")
     public CustomLoadControl(EventListener listener, Handler handler) {
         this(
-                new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+                new DefaultBufferAllocator(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE)),
                 DEFAULT_MIN_BUFFER_MS,
                 DEFAULT_MAX_BUFFER_MS,
                 DEFAULT_BUFFER_FOR_PLAYBACK_MS,
@@ -344,10 +697,12 @@ public final class CustomLoadControl implements LoadControl {
                 DEFAULT_BACK_BUFFER_DURATION_MS,
                 DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME);
         bufferedDurationListener = listener;
-        eventHandler = handler;
+        if (handler != null && listener != null) {
+            enableBufferTelemetry(handler, BufferTelemetry.DEFAULT_WINDOW_MS);
+        }
     }
 
-    protected CustomLoadControl(DefaultAllocator allocator,
+    protected CustomLoadControl(BufferAllocator allocator,
                                 int minBufferMs,
                                 int maxBufferMs,
                                 int bufferForPlaybackMs,
@@ -355,14 +710,22 @@ public final class CustomLoadControl implements LoadControl {
                                 int targetBufferBytes,
                                 boolean prioritizeTimeOverSizeThresholds,
                                 int backBufferDurationMs,
-                                boolean retainBackBufferFromKeyframe,EventListener bufferedDurationListener){
+                                boolean retainBackBufferFromKeyframe,EventListener bufferedDurationListener,
+                                BufferPolicy bufferPolicy,
+                                @Nullable BandwidthMeter bandwidthMeter,
+                                boolean bitrateBasedTargetBufferBytes,
+                                float bitrateHeadroomFactor){
 
         this(allocator,minBufferMs,maxBufferMs,bufferForPlaybackMs,bufferForPlaybackAfterRebufferMs,targetBufferBytes,prioritizeTimeOverSizeThresholds,backBufferDurationMs,retainBackBufferFromKeyframe);
         this.bufferedDurationListener = bufferedDurationListener;
+        this.bufferPolicy = bufferPolicy;
+        this.bandwidthMeter = bandwidthMeter;
+        this.bitrateBasedTargetBufferBytes = bitrateBasedTargetBufferBytes;
+        this.bitrateHeadroomFactor = bitrateHeadroomFactor;
     }
 
     protected CustomLoadControl(
-            DefaultAllocator allocator,
+            BufferAllocator allocator,
             int minBufferMs,
             int maxBufferMs,
             int bufferForPlaybackMs,
@@ -371,46 +734,62 @@ public final class CustomLoadControl implements LoadControl {
             boolean prioritizeTimeOverSizeThresholds,
             int backBufferDurationMs,
             boolean retainBackBufferFromKeyframe) {
-        assertGreaterOrEqual(bufferForPlaybackMs, 0, "bufferForPlaybackMs", "0");
-        assertGreaterOrEqual(
-                bufferForPlaybackAfterRebufferMs, 0, "bufferForPlaybackAfterRebufferMs", "0");
-        assertGreaterOrEqual(minBufferMs, bufferForPlaybackMs, "minBufferMs", "bufferForPlaybackMs");
-        assertGreaterOrEqual(
-                minBufferMs,
-                bufferForPlaybackAfterRebufferMs,
-                "minBufferMs",
-                "bufferForPlaybackAfterRebufferMs");
-        assertGreaterOrEqual(maxBufferMs, minBufferMs, "maxBufferMs", "minBufferMs");
         assertGreaterOrEqual(backBufferDurationMs, 0, "backBufferDurationMs", "0");
+        LoadControlConfig config =
+                new LoadControlConfig.Builder()
+                        .setBufferDurationsMs(
+                                minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs)
+                        .setTargetBufferBytes(targetBufferBytes)
+                        .setPrioritizeTimeOverSizeThresholds(prioritizeTimeOverSizeThresholds)
+                        .build();
 
         this.allocator = allocator;
-        this.minBufferUs = C.msToUs(minBufferMs);
-        this.maxBufferUs = C.msToUs(maxBufferMs);
-        this.bufferForPlaybackUs = C.msToUs(bufferForPlaybackMs);
-        this.bufferForPlaybackAfterRebufferUs = C.msToUs(bufferForPlaybackAfterRebufferMs);
-        this.targetBufferBytesOverwrite = targetBufferBytes;
+        this.config = config;
+        this.appliedConfig = config;
+        this.minBufferUs = config.minBufferUs;
+        this.maxBufferUs = config.maxBufferUs;
+        this.effectiveMaxBufferUs = config.maxBufferUs;
+        this.publishedMaxBufferUs = config.maxBufferUs;
+        this.effectiveMinBufferUs = min(config.minBufferUs, config.maxBufferUs);
         this.targetBufferBytes =
-                targetBufferBytesOverwrite != C.LENGTH_UNSET
-                        ? targetBufferBytesOverwrite
+                config.targetBufferBytes != C.LENGTH_UNSET
+                        ? config.targetBufferBytes
                         : DEFAULT_MIN_BUFFER_SIZE;
-        this.prioritizeTimeOverSizeThresholds = prioritizeTimeOverSizeThresholds;
         this.backBufferDurationUs = C.msToUs(backBufferDurationMs);
         this.retainBackBufferFromKeyframe = retainBackBufferFromKeyframe;
+        this.bufferPolicy = new ConservativeBufferPolicy();
+        this.throughputStats = new ThroughputStats();
+        this.lastBitrateEstimate = C.RATE_UNSET_INT;
+        this.bitrateHeadroomFactor = DEFAULT_BITRATE_HEADROOM_FACTOR;
+        this.sizedSelectedIndices = new int[0];
+        this.requestedMemoryPressureLevel = new AtomicInteger(MEMORY_PRESSURE_NONE);
+    }
+
+    private void enableBufferTelemetry(Handler eventHandler, long windowMs) {
+        this.eventHandler = eventHandler;
+        this.telemetryWindowMs = windowMs;
+        this.bufferTelemetry = new BufferTelemetry();
     }
 
     @Override
     public void onPrepared() {
         reset(false);
+        if (bufferTelemetry != null) {
+            bufferTelemetry.start(eventHandler, telemetryWindowMs, telemetryListener);
+        }
     }
 
     @Override
     public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
                                  ExoTrackSelection[] trackSelections) {
+        this.selectedRenderers = renderers;
+        this.trackSelections = trackSelections;
+        LoadControlConfig config = applyPendingConfig();
         targetBufferBytes =
-                targetBufferBytesOverwrite == C.LENGTH_UNSET
+                config.targetBufferBytes == C.LENGTH_UNSET
                         ? calculateTargetBufferBytes(renderers, trackSelections)
-                        : targetBufferBytesOverwrite;
-        allocator.setTargetBufferSize(targetBufferBytes);
+                        : config.targetBufferBytes;
+        allocator.setTargetBufferSize(getEffectiveTargetBufferBytes());
     }
 
     @Override
@@ -421,6 +800,59 @@ public final class CustomLoadControl implements LoadControl {
     @Override
     public void onReleased() {
         reset(true);
+        if (bufferTelemetry != null) {
+            bufferTelemetry.stop();
+        }
+        if (memoryPressureContext != null) {
+            memoryPressureContext.unregisterComponentCallbacks(this);
+            memoryPressureContext = null;
+        }
+        if (budgetMember != null) {
+            budgetMember.leave();
+            budgetMember = null;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int pressureLevel = toMemoryPressureLevel(level);
+        if (pressureLevel == MEMORY_PRESSURE_NONE) {
+            return;
+        }
+        lastTrimMemoryTimeMs = SystemClock.elapsedRealtime();
+        int requestedLevel;
+        do {
+            requestedLevel = requestedMemoryPressureLevel.get();
+        } while (requestedLevel < pressureLevel
+                && !requestedMemoryPressureLevel.compareAndSet(requestedLevel, pressureLevel));
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Returns the {@code MEMORY_PRESSURE_*} level for a {@link ComponentCallbacks2#onTrimMemory}
+     * level, or {@link #MEMORY_PRESSURE_NONE} for levels that say nothing about memory pressure,
+     * such as {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}.
+     */
+    /* package */ static int toMemoryPressureLevel(int trimMemoryLevel) {
+        if (trimMemoryLevel >= TRIM_MEMORY_BACKGROUND
+                || trimMemoryLevel == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return MEMORY_PRESSURE_CRITICAL;
+        } else if (trimMemoryLevel == TRIM_MEMORY_RUNNING_LOW) {
+            return MEMORY_PRESSURE_LOW;
+        } else if (trimMemoryLevel == TRIM_MEMORY_RUNNING_MODERATE) {
+            return MEMORY_PRESSURE_MODERATE;
+        } else {
+            return MEMORY_PRESSURE_NONE;
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Do nothing.
     }
 
     @Override
@@ -440,8 +872,23 @@ public final class CustomLoadControl implements LoadControl {
 
     @Override
     public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
+        boolean prioritizeTimeOverSizeThresholds = applyPendingConfig().prioritizeTimeOverSizeThresholds;
+        updateBufferTargets();
+        maybeUpdateTargetBufferBytes();
+        updateMemoryPressure();
+        updateBudget();
+        updateBackBuffer(playbackPositionUs, bufferedDurationUs);
+        int targetBufferBytes = getEffectiveTargetBufferBytes() + getBackBufferAllowanceBytes();
+        long maxBufferUs = scaleForMemoryPressure(this.maxBufferUs);
+        if (maxBufferUs != publishedMaxBufferUs) {
+            publishedMaxBufferUs = maxBufferUs;
+            effectiveMaxBufferUs = maxBufferUs;
+        }
         boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= targetBufferBytes;
-        long minBufferUs = this.minBufferUs;
+        long minBufferUs = min(this.minBufferUs, maxBufferUs);
+        if (minBufferUs != effectiveMinBufferUs) {
+            effectiveMinBufferUs = minBufferUs;
+        }
         if (playbackSpeed > 1) {
             // The playback speed is faster than real time, so scale up the minimum required media
             // duration to keep enough media buffered for a playout duration of minBufferUs.
@@ -461,37 +908,425 @@ public final class CustomLoadControl implements LoadControl {
         } else if (bufferedDurationUs >= maxBufferUs || targetBufferSizeReached) {
             isLoading = false;
         } // Else don't change the loading state.
-        if (bufferedDurationListener != null) {
+        if (priorityTaskManager != null) {
+            isLoading = updatePriorityTask(isLoading);
+        }
+        if (bufferTelemetry != null) {
+            bufferTelemetry.record(
+                    SystemClock.elapsedRealtime(),
+                    bufferedDurationUs,
+                    allocator.getTotalBytesAllocated(),
+                    isLoading);
+        } else if (bufferedDurationListener != null) {
             bufferedDurationListener.onBufferedDurationSample(bufferedDurationUs);
         }
 //        Log.e("ExoplayerCompose","shouldContinueLoading "+" bufferedDurationUs "+bufferedDurationUs);
+        publishIsLoading(isLoading);
         return isLoading;
     }
 
+    /**
+     * Feeds a new {@link BandwidthMeter} estimate to the {@link BufferPolicy} and applies the targets
+     * it returns. The estimate is only sampled when it changes, so that repeated calls between two
+     * transfers don't skew the variance.
+     */
+    private void updateBufferTargets() {
+        if (bandwidthMeter == null) {
+            return;
+        }
+        long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+        if (bitrateEstimate == lastBitrateEstimate || bitrateEstimate <= 0) {
+            return;
+        }
+        lastBitrateEstimate = bitrateEstimate;
+        throughputStats.addSample(bitrateEstimate);
+        computeBufferTargets(appliedConfig);
+    }
+
+    private void computeBufferTargets(LoadControlConfig config) {
+        BufferPolicy.BufferTargets targets =
+                bufferPolicy.computeTargets(config.minBufferUs, config.maxBufferUs, throughputStats);
+        minBufferUs = targets.minBufferUs;
+        maxBufferUs = targets.maxBufferUs;
+    }
+
+    /**
+     * Swaps in a new {@link LoadControlConfig}. Safe to call from any thread; the playback thread
+     * picks up the new snapshot on its next call into the load control, and re-derives the buffer
+     * targets from it.
+     *
+     * @param config The new {@link LoadControlConfig}.
+     */
+    public void setConfig(LoadControlConfig config) {
+        this.config = config;
+    }
+
+    /** Returns the current {@link LoadControlConfig}. */
+    public LoadControlConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Reads the {@link LoadControlConfig} once and, if it was swapped since the last call, re-derives
+     * the buffer targets and the target buffer size from it. Must be called on the playback thread.
+     *
+     * @return The config to use for the rest of the call.
+     */
+    private LoadControlConfig applyPendingConfig() {
+        LoadControlConfig config = this.config;
+        if (config == appliedConfig) {
+            return config;
+        }
+        appliedConfig = config;
+        computeBufferTargets(config);
+        if (config.targetBufferBytes != C.LENGTH_UNSET) {
+            targetBufferBytes = config.targetBufferBytes;
+        } else if (selectedRenderers != null && trackSelections != null) {
+            targetBufferBytes = calculateTargetBufferBytes(selectedRenderers, trackSelections);
+        } else {
+            targetBufferBytes = DEFAULT_MIN_BUFFER_SIZE;
+        }
+        allocator.setTargetBufferSize(getEffectiveTargetBufferBytes());
+        return config;
+    }
+
+    /**
+     * Recomputes the bitrate-derived target buffer size if an adaptive selection switched format or
+     * the maximum buffer duration changed since it was last computed.
+     */
+    private void maybeUpdateTargetBufferBytes() {
+        if (!bitrateBasedTargetBufferBytes
+                || appliedConfig.targetBufferBytes != C.LENGTH_UNSET
+                || selectedRenderers == null
+                || trackSelections == null) {
+            return;
+        }
+        boolean changed = maxBufferUs != sizedMaxBufferUs;
+        for (int i = 0; i < trackSelections.length && !changed; i++) {
+            ExoTrackSelection trackSelection = trackSelections[i];
+            changed = trackSelection != null
+                    && trackSelection.getSelectedIndex() != sizedSelectedIndices[i];
+        }
+        if (changed) {
+            targetBufferBytes = calculateTargetBufferBytes(selectedRenderers, trackSelections);
+            allocator.setTargetBufferSize(getEffectiveTargetBufferBytes());
+        }
+    }
+
+    /**
+     * Applies the memory pressure level requested by {@link #onTrimMemory}, or lowers it by one step
+     * if no trim request arrived for {@link #memoryPressureRecoveryMs}. Shrinking the budget trims
+     * the allocator. A shared segment pool tracks the pressure on its own, see {@link
+     * BufferAllocator#trimOnMemoryPressure}.
+     */
+    private void updateMemoryPressure() {
+        int newLevel = requestedMemoryPressureLevel.get();
+        if (newLevel != MEMORY_PRESSURE_NONE
+                && SystemClock.elapsedRealtime() - lastTrimMemoryTimeMs >= memoryPressureRecoveryMs) {
+            // Only step down if no trim request raised the level in the meantime.
+            if (requestedMemoryPressureLevel.compareAndSet(newLevel, newLevel - 1)) {
+                newLevel--;
+                lastTrimMemoryTimeMs = SystemClock.elapsedRealtime();
+            } else {
+                newLevel = requestedMemoryPressureLevel.get();
+            }
+        }
+        if (newLevel == memoryPressureLevel) {
+            return;
+        }
+        int previousRetainedBytes = allocator.getRetainedBytes();
+        memoryPressureLevel = newLevel;
+        allocator.setTargetBufferSize(getEffectiveTargetBufferBytes());
+        allocator.trim();
+        if (bufferedDurationListener != null) {
+            int appliedLevel = newLevel;
+            int retainedBytes = allocator.getRetainedBytes();
+            int bytesReclaimed =
+                    previousRetainedBytes == C.LENGTH_UNSET || retainedBytes == C.LENGTH_UNSET
+                            ? C.LENGTH_UNSET
+                            : max(0, previousRetainedBytes - retainedBytes);
+            dispatchEvent(
+                    () -> bufferedDurationListener.onMemoryPressureChanged(appliedLevel, bytesReclaimed));
+        }
+    }
+
+    /**
+     * Applies a change of the share of the {@link BufferBudgetCoordinator} budget assigned to this
+     * instance.
+     */
+    private void updateBudget() {
+        if (budgetMember == null) {
+            return;
+        }
+        int budgetBytes = budgetMember.getBudgetBytes();
+        if (budgetBytes != appliedBudgetBytes) {
+            appliedBudgetBytes = budgetBytes;
+            allocator.setTargetBufferSize(getEffectiveTargetBufferBytes());
+        }
+    }
+
+    /**
+     * Registers this instance's priority with the shared {@link PriorityTaskManager} while it wants
+     * to load, and only lets it load while no higher-priority member is loading.
+     *
+     * @param wantsToLoad Whether the buffer thresholds ask for loading.
+     * @return Whether to continue loading.
+     */
+    private boolean updatePriorityTask(boolean wantsToLoad) {
+        PriorityTaskManager priorityTaskManager = this.priorityTaskManager;
+        int priority = budgetMember != null ? budgetMember.getPriority() : LOADING_PRIORITY;
+        if (isPriorityRegistered && (!wantsToLoad || registeredPriority != priority)) {
+            priorityTaskManager.remove(registeredPriority);
+            isPriorityRegistered = false;
+        }
+        if (!wantsToLoad) {
+            return false;
+        }
+        if (!isPriorityRegistered) {
+            priorityTaskManager.add(priority);
+            registeredPriority = priority;
+            isPriorityRegistered = true;
+        }
+        return priorityTaskManager.proceedNonBlocking(priority);
+    }
+
+    /**
+     * Estimates the size of the back buffer from the playback position, and detects seeks back that
+     * were served from it. A backward jump that still leaves media buffered ahead of the new position
+     * was served from memory; one that empties the buffer was re-fetched.
+     */
+    private void updateBackBuffer(long playbackPositionUs, long bufferedDurationUs) {
+        if (backBufferMaxBytes == C.LENGTH_UNSET) {
+            return;
+        }
+        long bytesPerSecond = 0;
+        long totalBufferedUs = bufferedDurationUs + backBufferedDurationUs;
+        if (totalBufferedUs > 0) {
+            bytesPerSecond =
+                    allocator.getTotalBytesAllocated() * C.MICROS_PER_SECOND / totalBufferedUs;
+        }
+        if (lastPlaybackPositionUs != C.TIME_UNSET) {
+            long deltaUs = playbackPositionUs - lastPlaybackPositionUs;
+            if (deltaUs >= 0) {
+                backBufferedDurationUs = min(backBufferDurationUs, backBufferedDurationUs + deltaUs);
+            } else if (-deltaUs <= backBufferedDurationUs && bufferedDurationUs > 0) {
+                long savedBytes = -deltaUs * bytesPerSecond / C.MICROS_PER_SECOND;
+                backBufferedDurationUs += deltaUs;
+                backBufferBytesSaved += savedBytes;
+                if (bufferedDurationListener != null) {
+                    long totalSavedBytes = backBufferBytesSaved;
+                    dispatchEvent(
+                            () -> bufferedDurationListener.onBackBufferSeek(savedBytes, totalSavedBytes));
+                }
+            } else {
+                backBufferedDurationUs = 0;
+            }
+        }
+        lastPlaybackPositionUs = playbackPositionUs;
+        backBufferBytes = backBufferedDurationUs * bytesPerSecond / C.MICROS_PER_SECOND;
+    }
+
+    /**
+     * Returns the number of bytes of back buffer that don't count against the target buffer size:
+     * the estimated back buffer size up to its cap, or nothing under memory pressure.
+     */
+    private int getBackBufferAllowanceBytes() {
+        if (backBufferMaxBytes == C.LENGTH_UNSET || memoryPressureLevel != MEMORY_PRESSURE_NONE) {
+            return 0;
+        }
+        return (int) min(backBufferMaxBytes, backBufferBytes);
+    }
+
+    /** Returns the estimated number of bytes seeks back were served from the back buffer. */
+    public long getBackBufferBytesSaved() {
+        return backBufferBytesSaved;
+    }
+
+    /**
+     * Returns the target buffer size after memory pressure scaling, capped by the {@link
+     * BufferBudgetCoordinator} share if there is one.
+     */
+    private int getEffectiveTargetBufferBytes() {
+        int targetBufferBytes = scaleForMemoryPressure(this.targetBufferBytes);
+        return appliedBudgetBytes == C.LENGTH_UNSET
+                ? targetBufferBytes
+                : min(targetBufferBytes, appliedBudgetBytes);
+    }
+
+    /**
+     * Changes the loading priority of this instance within its {@link BufferBudgetCoordinator}, for
+     * example when its player moves to the foreground. Does nothing if no coordinator is set.
+     *
+     * @param loadingPriority The new loading priority.
+     */
+    public void setLoadingPriority(int loadingPriority) {
+        if (budgetMember != null) {
+            budgetMember.setPriority(loadingPriority);
+        }
+    }
+
+    /**
+     * Sets whether this instance takes a share of its {@link BufferBudgetCoordinator} budget. A
+     * player that is kept idle, for example in a pool, should give up its share so the players that
+     * load can use all of it. Does nothing if no coordinator is set.
+     *
+     * @param active Whether this instance takes part in the split.
+     */
+    public void setBudgetActive(boolean active) {
+        if (budgetMember != null) {
+            budgetMember.setActive(active);
+        }
+    }
+
+    private int scaleForMemoryPressure(int bytes) {
+        return (int) (bytes * MEMORY_PRESSURE_SCALES[memoryPressureLevel]);
+    }
+
+    private long scaleForMemoryPressure(long durationUs) {
+        return (long) (durationUs * MEMORY_PRESSURE_SCALES[memoryPressureLevel]);
+    }
+
+    /** Returns the current {@code MEMORY_PRESSURE_*} level. */
+    public int getMemoryPressureLevel() {
+        return memoryPressureLevel;
+    }
+
+    /** Returns the {@link ThroughputStats} observed during the current session. */
+    public ThroughputStats getThroughputStats() {
+        return throughputStats;
+    }
+
+    /**
+     * Returns whether this instance last asked the player to continue loading. Safe to call from any
+     * thread.
+     */
+    public boolean isLoading() {
+        return publishedIsLoading;
+    }
+
+    /**
+     * Sets a listener called on the playback thread whenever {@link #isLoading()} changes, so that
+     * other threads can wait for loading to stop without polling.
+     *
+     * @param loadingListener The listener, or null to clear it.
+     */
+    public void setLoadingListener(@Nullable LoadingListener loadingListener) {
+        this.loadingListener = loadingListener;
+    }
+
+    /**
+     * Returns the maximum buffer duration currently applied by this instance, after the {@link
+     * BufferPolicy} and memory pressure scaling, in microseconds. Safe to call from any thread.
+     */
     public long getMaxBufferUs(){
-//        return ((DEFAULT_MAX_BUFFER_MS*VIDEO_BUFFER_SCALE_UP_FACTOR)/1000);
-        return ((DEFAULT_MAX_BUFFER_MS)/1000);
+        return effectiveMaxBufferUs;
+    }
+
+    /**
+     * Returns the minimum buffer duration currently applied by this instance, capped by {@link
+     * #getMaxBufferUs()}, in microseconds. Safe to call from any thread.
+     */
+    public long getMinBufferUs() {
+        return effectiveMinBufferUs;
     }
 
     @Override
     public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed, boolean rebuffering, long targetLiveOffsetUs) {
+        LoadControlConfig config = applyPendingConfig();
         bufferedDurationUs = Util.getPlayoutDurationForMediaDuration(bufferedDurationUs, playbackSpeed);
-        long minBufferDurationUs = rebuffering ? bufferForPlaybackAfterRebufferUs : bufferForPlaybackUs;
+        long minBufferDurationUs =
+                rebuffering ? config.bufferForPlaybackAfterRebufferUs : config.bufferForPlaybackUs;
         if (targetLiveOffsetUs != C.TIME_UNSET) {
             minBufferDurationUs = min(targetLiveOffsetUs / 2, minBufferDurationUs);
         }
-        if (bufferedDurationListener != null) {
-            bufferedDurationListener.onPercentageUpdate(
-                    (int) ((bufferedDurationUs * 100) / minBufferDurationUs), rebuffering);
+        if (bufferedDurationListener != null && minBufferDurationUs > 0) {
+            int percentage = (int) ((bufferedDurationUs * 100) / minBufferDurationUs);
+            if (bufferTelemetry != null) {
+                pendingPercentageUpdate = ((long) percentage << 1) | (rebuffering ? 1 : 0);
+            } else {
+                bufferedDurationListener.onPercentageUpdate(percentage, rebuffering);
+            }
         }
 //        Log.e("ExoplayerCompose","shouldStartPlayback "+(minBufferDurationUs <= 0
 //                || bufferedDurationUs >= minBufferDurationUs
 //                || (!prioritizeTimeOverSizeThresholds
 //                && allocator.getTotalBytesAllocated() >= targetBufferBytes))+" bufferedDurationUs "+bufferedDurationUs);
-        return minBufferDurationUs <= 0
-                || bufferedDurationUs >= minBufferDurationUs
-                || (!prioritizeTimeOverSizeThresholds
-                && allocator.getTotalBytesAllocated() >= targetBufferBytes);
+        long predictedBufferDurationUs =
+                predictiveStart ? getPredictiveStartBufferDurationUs(playbackSpeed) : C.TIME_UNSET;
+        int reason;
+        if (minBufferDurationUs <= 0 || bufferedDurationUs >= minBufferDurationUs) {
+            reason = START_REASON_FIXED_THRESHOLD;
+        } else if (!config.prioritizeTimeOverSizeThresholds
+                && allocator.getTotalBytesAllocated()
+                        >= getEffectiveTargetBufferBytes() + getBackBufferAllowanceBytes()) {
+            reason = START_REASON_TARGET_BUFFER_BYTES;
+        } else if (predictedBufferDurationUs != C.TIME_UNSET
+                && bufferedDurationUs >= predictedBufferDurationUs) {
+            reason = START_REASON_PREDICTED_SAFE;
+        } else {
+            reason = START_REASON_NONE;
+        }
+        boolean start = reason != START_REASON_NONE;
+        if (bufferedDurationListener != null && (start || !heldStartReported)) {
+            heldStartReported = !start;
+            long playoutBufferedDurationUs = bufferedDurationUs;
+            long fixedThresholdUs = minBufferDurationUs;
+            dispatchEvent(
+                    () -> bufferedDurationListener.onPlaybackStartDecision(
+                            reason,
+                            rebuffering,
+                            playoutBufferedDurationUs,
+                            fixedThresholdUs,
+                            predictedBufferDurationUs));
+        }
+        return start;
+    }
+
+    /**
+     * Calls the {@link EventListener} through the event {@link Handler} set with {@link
+     * Builder#setBufferTelemetry}, so that it doesn't run on the playback thread, or directly if
+     * there is none.
+     */
+    private void dispatchEvent(Runnable event) {
+        if (eventHandler != null) {
+            eventHandler.post(event);
+        } else {
+            event.run();
+        }
+    }
+
+    /**
+     * Returns the buffered playout duration after which the predictive start considers it safe to
+     * play, or {@link C#TIME_UNSET} if there is no bandwidth estimate or selected bitrate yet.
+     *
+     * <p>While playing, the buffer changes by {@code throughput / mediaBitrate - 1} seconds per
+     * second of playout. If that is negative, the buffer must cover the deficit over the prediction
+     * horizon.
+     */
+    private long getPredictiveStartBufferDurationUs(float playbackSpeed) {
+        if (bandwidthMeter == null || trackSelections == null) {
+            return C.TIME_UNSET;
+        }
+        long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+        long mediaBitrate = 0;
+        for (ExoTrackSelection trackSelection : trackSelections) {
+            if (trackSelection != null) {
+                int bitrate = trackSelection.getSelectedFormat().bitrate;
+                if (bitrate == Format.NO_VALUE) {
+                    return C.TIME_UNSET;
+                }
+                mediaBitrate += bitrate;
+            }
+        }
+        if (bitrateEstimate <= 0 || mediaBitrate <= 0) {
+            return C.TIME_UNSET;
+        }
+        double fillRatio =
+                bitrateEstimate * predictiveStartSafetyFactor / (mediaBitrate * (double) playbackSpeed);
+        if (fillRatio >= 1) {
+            return predictiveStartMinBufferUs;
+        }
+        return max(predictiveStartMinBufferUs, (long) (predictiveStartHorizonUs * (1 - fillRatio)));
     }
 
     /**
@@ -504,6 +1339,9 @@ public final class CustomLoadControl implements LoadControl {
      */
     protected int calculateTargetBufferBytes(
             Renderer[] renderers, ExoTrackSelection[] trackSelectionArray) {
+        if (bitrateBasedTargetBufferBytes) {
+            return calculateBitrateBasedTargetBufferBytes(renderers, trackSelectionArray);
+        }
         int targetBufferSize = 0;
         for (int i = 0; i < renderers.length; i++) {
             if (trackSelectionArray[i] != null) {
@@ -515,14 +1353,67 @@ public final class CustomLoadControl implements LoadControl {
         return max(DEFAULT_MIN_BUFFER_SIZE, targetBufferSize);
     }
 
+    /**
+     * Calculate target buffer size in bytes from the bitrate of the currently selected formats and
+     * the maximum buffer duration, and remember what it was computed from so that format switches
+     * can be detected.
+     *
+     * @param renderers The renderers for which the track were selected.
+     * @param trackSelectionArray The selected tracks.
+     * @return The target buffer size in bytes.
+     */
+    private int calculateBitrateBasedTargetBufferBytes(
+            Renderer[] renderers, ExoTrackSelection[] trackSelectionArray) {
+        if (sizedSelectedIndices.length != trackSelectionArray.length) {
+            sizedSelectedIndices = new int[trackSelectionArray.length];
+        }
+        sizedMaxBufferUs = maxBufferUs;
+        long targetBufferSize = 0;
+        for (int i = 0; i < renderers.length; i++) {
+            ExoTrackSelection trackSelection = trackSelectionArray[i];
+            if (trackSelection == null) {
+                continue;
+            }
+            sizedSelectedIndices[i] = trackSelection.getSelectedIndex();
+            Format format = trackSelection.getSelectedFormat();
+            int bitrate = format.peakBitrate != Format.NO_VALUE ? format.peakBitrate : format.bitrate;
+            if (bitrate == Format.NO_VALUE) {
+                targetBufferSize += getDefaultBufferSize(renderers[i].getTrackType());
+            } else {
+                targetBufferSize +=
+                        (long) (bitrate * (maxBufferUs / (double) C.MICROS_PER_SECOND) / C.BITS_PER_BYTE
+                                * bitrateHeadroomFactor);
+            }
+        }
+        return (int) max(DEFAULT_MIN_BUFFER_SIZE, min(Integer.MAX_VALUE, targetBufferSize));
+    }
+
     private void reset(boolean resetAllocator) {
+        LoadControlConfig config = applyPendingConfig();
         targetBufferBytes =
-                targetBufferBytesOverwrite == C.LENGTH_UNSET
+                config.targetBufferBytes == C.LENGTH_UNSET
                         ? DEFAULT_MIN_BUFFER_SIZE
-                        : targetBufferBytesOverwrite;
+                        : config.targetBufferBytes;
         isLoading = false;
+        publishIsLoading(false);
+        lastPlaybackPositionUs = C.TIME_UNSET;
+        backBufferedDurationUs = 0;
+        backBufferBytes = 0;
+        heldStartReported = false;
+        if (priorityTaskManager != null && isPriorityRegistered) {
+            priorityTaskManager.remove(registeredPriority);
+            isPriorityRegistered = false;
+        }
+        selectedRenderers = null;
+        trackSelections = null;
         if (resetAllocator) {
             allocator.reset();
+            // A stop or release ends the session, so the next one starts from the configured targets.
+            throughputStats.reset();
+            lastBitrateEstimate = C.RATE_UNSET_INT;
+            minBufferUs = config.minBufferUs;
+            maxBufferUs = config.maxBufferUs;
+            bufferPolicy.onSessionStarted();
         }
     }
 
@@ -547,15 +1438,111 @@ public final class CustomLoadControl implements LoadControl {
         }
     }
 
+    /** Forwards drained {@link BufferTelemetry} samples to the {@link EventListener}. */
+    private final class TelemetryListener implements BufferTelemetry.Listener {
+
+        private long reportedPercentageUpdate = C.INDEX_UNSET;
+
+        @Override
+        public void onSample(
+                long timeMs, long bufferedDurationUs, int allocatedBytes, boolean isLoading) {
+            bufferedDurationListener.onBufferedDurationSample(bufferedDurationUs);
+        }
+
+        @Override
+        public void onWindow(BufferTelemetry.Window window) {
+            long percentageUpdate = pendingPercentageUpdate;
+            if (percentageUpdate != C.INDEX_UNSET && percentageUpdate != reportedPercentageUpdate) {
+                reportedPercentageUpdate = percentageUpdate;
+                bufferedDurationListener.onPercentageUpdate(
+                        (int) (percentageUpdate >> 1), (percentageUpdate & 1) != 0);
+            }
+            bufferedDurationListener.onBufferTelemetryWindow(window);
+        }
+    }
+
+    private void publishIsLoading(boolean isLoading) {
+        if (isLoading == publishedIsLoading) {
+            return;
+        }
+        publishedIsLoading = isLoading;
+        @Nullable LoadingListener loadingListener = this.loadingListener;
+        if (loadingListener != null) {
+            loadingListener.onLoadingChanged(this, isLoading);
+        }
+    }
+
     private static void assertGreaterOrEqual(int value1, int value2, String name1, String name2) {
         Assertions.checkArgument(value1 >= value2, name1 + " cannot be less than " + name2);
     }
 
+    /** Listener for changes of {@link #isLoading()}. */
+    public interface LoadingListener {
+
+        /**
+         * Called on the playback thread when {@link #isLoading()} changes. Must not block.
+         *
+         * @param loadControl The load control.
+         * @param isLoading The new value of {@link #isLoading()}.
+         */
+        void onLoadingChanged(CustomLoadControl loadControl, boolean isLoading);
+    }
+
     /**
      * An interface for Event listener
      */
     public interface EventListener {
         void onBufferedDurationSample(long bufferedDurationUs);
         default void onPercentageUpdate(int percentage,boolean rebuffering){}
+
+        /**
+         * Called when the memory pressure level applied by the load control changes. Called on the
+         * event {@link Handler} if one is set with {@link Builder#setBufferTelemetry}, or on the
+         * playback thread otherwise.
+         *
+         * @param memoryPressureLevel The new {@code MEMORY_PRESSURE_*} level.
+         * @param bytesReclaimed The number of bytes the allocator released by trimming, measured with
+         *     {@link BufferAllocator#getRetainedBytes()}, 0 if the pressure eased, or {@link
+         *     C#LENGTH_UNSET} if the allocator can't measure them.
+         */
+        default void onMemoryPressureChanged(int memoryPressureLevel, int bytesReclaimed){}
+
+        /**
+         * Called on the event {@link Handler} with a summary of the samples drained from the {@link
+         * BufferTelemetry}, if enabled. The {@link BufferTelemetry.Window} is reused and must not be
+         * retained.
+         */
+        default void onBufferTelemetryWindow(BufferTelemetry.Window window){}
+
+        /**
+         * Called each time the load control lets playback start or resume, and once when it first
+         * holds playback while waiting for the buffer. Called on the event {@link Handler} if one is
+         * set with {@link Builder#setBufferTelemetry}, or on the playback thread otherwise.
+         *
+         * @param reason The {@code START_REASON_*} constant of the condition that was met, or {@link
+         *     CustomLoadControl#START_REASON_NONE} if playback was held.
+         * @param rebuffering Whether playback is resuming after a rebuffer.
+         * @param bufferedDurationUs The buffered playout duration, in microseconds.
+         * @param fixedThresholdUs The fixed buffer-for-playback duration that applied, in
+         *     microseconds.
+         * @param predictedThresholdUs The predictive start duration, or {@link C#TIME_UNSET} if the
+         *     predictive start is disabled or had no estimate.
+         */
+        default void onPlaybackStartDecision(
+                int reason,
+                boolean rebuffering,
+                long bufferedDurationUs,
+                long fixedThresholdUs,
+                long predictedThresholdUs){}
+
+        /**
+         * Called when a seek back was served from the back buffer kept with {@link
+         * Builder#setSeekBackBuffer}. Called on the event {@link Handler} if one is set with {@link
+         * Builder#setBufferTelemetry}, or on the playback thread otherwise.
+         *
+         * @param savedBytes The estimated number of bytes that didn't have to be fetched again.
+         * @param totalSavedBytes The total for this load control.
+         */
+        default void onBackBufferSeek(long savedBytes, long totalSavedBytes){}
     }
 }
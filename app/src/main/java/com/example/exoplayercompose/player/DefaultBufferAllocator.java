@@ -0,0 +1,65 @@
+package com.example.exoplayercompose.player;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/** A {@link BufferAllocator} that delegates to a {@link DefaultAllocator}. */
+public final class DefaultBufferAllocator implements BufferAllocator {
+
+    private final DefaultAllocator allocator;
+
+    public DefaultBufferAllocator(DefaultAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public void setTargetBufferSize(int targetBufferSize) {
+        allocator.setTargetBufferSize(targetBufferSize);
+    }
+
+    @Override
+    public void reset() {
+        allocator.reset();
+    }
+
+    @Override
+    public Allocation allocate() {
+        return allocator.allocate();
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+        allocator.release(allocation);
+    }
+
+    @Override
+    public void release(@Nullable AllocationNode allocationNode) {
+        allocator.release(allocationNode);
+    }
+
+    @Override
+    public void trim() {
+        allocator.trim();
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+        return allocator.getTotalBytesAllocated();
+    }
+
+    /**
+     * Returns {@link C#LENGTH_UNSET}: {@link DefaultAllocator} doesn't expose its free allocations,
+     * so bytes released by {@link #trim()} can't be measured.
+     */
+    @Override
+    public int getRetainedBytes() {
+        return C.LENGTH_UNSET;
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+        return allocator.getIndividualAllocationLength();
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.exoplayercompose.player;
+
+import static com.google.android.exoplayer2.util.Assertions.checkArgument;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * An immutable snapshot of the {@link CustomLoadControl} parameters that can be changed while the
+ * player is running, through {@link CustomLoadControl#setConfig}.
+ *
+ * <p>The back buffer parameters are not part of the snapshot because the player only reads them
+ * once, when it is built.
+ */
+public final class LoadControlConfig {
+
+    /** Builder for {@link LoadControlConfig}. */
+    public static final class Builder {
+
+        private int minBufferMs;
+        private int maxBufferMs;
+        private int bufferForPlaybackMs;
+        private int bufferForPlaybackAfterRebufferMs;
+        private int targetBufferBytes;
+        private boolean prioritizeTimeOverSizeThresholds;
+
+        /** Constructs a new instance, using the {@code DEFAULT_*} constants of {@link CustomLoadControl}. */
+        public Builder() {
+            minBufferMs = CustomLoadControl.DEFAULT_MIN_BUFFER_MS;
+            maxBufferMs = CustomLoadControl.DEFAULT_MAX_BUFFER_MS;
+            bufferForPlaybackMs = CustomLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS;
+            bufferForPlaybackAfterRebufferMs =
+                    CustomLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS;
+            targetBufferBytes = CustomLoadControl.DEFAULT_TARGET_BUFFER_BYTES;
+            prioritizeTimeOverSizeThresholds =
+                    CustomLoadControl.DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS;
+        }
+
+        private Builder(LoadControlConfig config) {
+            minBufferMs = (int) C.usToMs(config.minBufferUs);
+            maxBufferMs = (int) C.usToMs(config.maxBufferUs);
+            bufferForPlaybackMs = (int) C.usToMs(config.bufferForPlaybackUs);
+            bufferForPlaybackAfterRebufferMs = (int) C.usToMs(config.bufferForPlaybackAfterRebufferUs);
+            targetBufferBytes = config.targetBufferBytes;
+            prioritizeTimeOverSizeThresholds = config.prioritizeTimeOverSizeThresholds;
+        }
+
+        /**
+         * Sets the buffer duration parameters.
+         *
+         * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
+         *     buffered at all times, in milliseconds.
+         * @param maxBufferMs The maximum duration of media that the player will attempt to buffer, in
+         *     milliseconds.
+         * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start
+         *     or resume following a user action such as a seek, in milliseconds.
+         * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered
+         *     for playback to resume after a rebuffer, in milliseconds.
+         * @return This builder, for convenience.
+         */
+        public Builder setBufferDurationsMs(
+                int minBufferMs,
+                int maxBufferMs,
+                int bufferForPlaybackMs,
+                int bufferForPlaybackAfterRebufferMs) {
+            this.minBufferMs = minBufferMs;
+            this.maxBufferMs = maxBufferMs;
+            this.bufferForPlaybackMs = bufferForPlaybackMs;
+            this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+            return this;
+        }
+
+        /**
+         * Sets the target buffer size in bytes. If set to {@link C#LENGTH_UNSET}, the target buffer
+         * size will be calculated based on the selected tracks.
+         *
+         * @param targetBufferBytes The target buffer size in bytes.
+         * @return This builder, for convenience.
+         */
+        public Builder setTargetBufferBytes(int targetBufferBytes) {
+            this.targetBufferBytes = targetBufferBytes;
+            return this;
+        }
+
+        /**
+         * Sets whether the load control prioritizes buffer time constraints over buffer size
+         * constraints.
+         *
+         * @param prioritizeTimeOverSizeThresholds Whether the load control prioritizes buffer time
+         *     constraints over buffer size constraints.
+         * @return This builder, for convenience.
+         */
+        public Builder setPrioritizeTimeOverSizeThresholds(boolean prioritizeTimeOverSizeThresholds) {
+            this.prioritizeTimeOverSizeThresholds = prioritizeTimeOverSizeThresholds;
+            return this;
+        }
+
+        /**
+         * Creates a {@link LoadControlConfig}.
+         *
+         * @throws IllegalArgumentException If the buffer durations are inconsistent.
+         */
+        public LoadControlConfig build() {
+            assertGreaterOrEqual(bufferForPlaybackMs, 0, "bufferForPlaybackMs", "0");
+            assertGreaterOrEqual(
+                    bufferForPlaybackAfterRebufferMs, 0, "bufferForPlaybackAfterRebufferMs", "0");
+            assertGreaterOrEqual(minBufferMs, bufferForPlaybackMs, "minBufferMs", "bufferForPlaybackMs");
+            assertGreaterOrEqual(
+                    minBufferMs,
+                    bufferForPlaybackAfterRebufferMs,
+                    "minBufferMs",
+                    "bufferForPlaybackAfterRebufferMs");
+            assertGreaterOrEqual(maxBufferMs, minBufferMs, "maxBufferMs", "minBufferMs");
+            return new LoadControlConfig(this);
+        }
+
+        private static void assertGreaterOrEqual(int value1, int value2, String name1, String name2) {
+            checkArgument(value1 >= value2, name1 + " cannot be less than " + name2);
+        }
+    }
+
+    /** The minimum duration of media to keep buffered, in microseconds. */
+    public final long minBufferUs;
+    /** The maximum duration of media to buffer, in microseconds. */
+    public final long maxBufferUs;
+    /** The duration of media required to start or resume playback after a user action. */
+    public final long bufferForPlaybackUs;
+    /** The duration of media required to resume playback after a rebuffer. */
+    public final long bufferForPlaybackAfterRebufferUs;
+    /** The target buffer size in bytes, or {@link C#LENGTH_UNSET} to derive it from the tracks. */
+    public final int targetBufferBytes;
+    /** Whether buffer time constraints are prioritized over buffer size constraints. */
+    public final boolean prioritizeTimeOverSizeThresholds;
+
+    private LoadControlConfig(Builder builder) {
+        minBufferUs = C.msToUs(builder.minBufferMs);
+        maxBufferUs = C.msToUs(builder.maxBufferMs);
+        bufferForPlaybackUs = C.msToUs(builder.bufferForPlaybackMs);
+        bufferForPlaybackAfterRebufferUs = C.msToUs(builder.bufferForPlaybackAfterRebufferMs);
+        targetBufferBytes = builder.targetBufferBytes;
+        prioritizeTimeOverSizeThresholds = builder.prioritizeTimeOverSizeThresholds;
+    }
+
+    /** Returns a {@link Builder} initialized with the values of this instance. */
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+}
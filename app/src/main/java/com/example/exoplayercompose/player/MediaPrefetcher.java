@@ -0,0 +1,516 @@
+package com.example.exoplayercompose.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.example.exoplayercompose.util.CacheStats;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.DashUtil;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMultivariantPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the first seconds of upcoming media into the download cache, so that playback of the next
+ * item starts from the cache instead of a cold network.
+ *
+ * <p>Progressive media is prefetched from the start of the file. For HLS and DASH the manifest is
+ * resolved and the initial segments of the rendition the player is expected to start with are
+ * fetched. Each item is capped at {@link #getMaxBytesPerItem()} bytes. Live streams are skipped,
+ * since their segments would be stale by the time playback starts.
+ *
+ * <p>Prefetching runs on a bounded pool of worker threads and pauses while the foreground
+ * player's {@link CustomLoadControl} is loading, so it never competes with playback for bandwidth.
+ * Paused workers wait until the load control reports that loading stopped, through a {@link
+ * CustomLoadControl.LoadingListener}.
+ */
+public final class MediaPrefetcher {
+
+    /** Listener for the outcome of prefetch tasks. Called on a worker thread. */
+    public interface Listener {
+
+        /**
+         * Called when a prefetch task finishes.
+         *
+         * @param uri The prefetched URI.
+         * @param bytesCached The number of bytes the task wrote or found in the cache.
+         * @param error The error that ended the task, or null if it completed or was canceled.
+         */
+        void onPrefetchFinished(Uri uri, long bytesCached, @Nullable IOException error);
+    }
+
+    /** A queued or running prefetch of one URI. */
+    public final class Task implements Runnable {
+
+        private final Uri uri;
+        @Nullable private volatile CacheWriter cacheWriter;
+        @Nullable private Future<?> future;
+        private volatile boolean canceled;
+        private volatile boolean done;
+        private volatile long bytesCached;
+
+        private Task(Uri uri) {
+            this.uri = uri;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        /** Returns the number of bytes written or found in the cache so far. */
+        public long getBytesCached() {
+            return bytesCached;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /** Cancels the task. Bytes already written stay in the cache. */
+        public void cancel() {
+            canceled = true;
+            wakePausedWorkers();
+            CacheWriter cacheWriter = this.cacheWriter;
+            if (cacheWriter != null) {
+                cacheWriter.cancel();
+            }
+            Future<?> future = this.future;
+            if (future != null) {
+                future.cancel(/* mayInterruptIfRunning= */ true);
+            }
+        }
+
+        @Override
+        public void run() {
+            @Nullable IOException error = null;
+            try {
+                switch (Util.inferContentType(uri)) {
+                    case C.CONTENT_TYPE_HLS:
+                        prefetchHls(this);
+                        break;
+                    case C.CONTENT_TYPE_DASH:
+                        prefetchDash(this);
+                        break;
+                    case C.CONTENT_TYPE_OTHER:
+                        cache(this, new DataSpec(uri));
+                        break;
+                    default:
+                        // Smooth streaming and RTSP are not prefetched.
+                        break;
+                }
+            } catch (InterruptedIOException e) {
+                // Canceled.
+            } catch (IOException e) {
+                if (!canceled) {
+                    Log.w(TAG, "Prefetch failed: " + uri, e);
+                    error = e;
+                }
+            } finally {
+                done = true;
+                synchronized (MediaPrefetcher.this) {
+                    tasks.remove(this);
+                }
+            }
+            Listener listener = MediaPrefetcher.this.listener;
+            if (listener != null) {
+                listener.onPrefetchFinished(uri, bytesCached, error);
+            }
+        }
+    }
+
+    /** The default duration of media prefetched per item, in milliseconds. */
+    public static final int DEFAULT_PREFETCH_DURATION_MS = 10_000;
+    /** The default maximum number of bytes prefetched per item. */
+    public static final long DEFAULT_MAX_BYTES_PER_ITEM = 4 * 1024 * 1024;
+    /** The default number of worker threads. */
+    public static final int DEFAULT_THREAD_COUNT = 2;
+
+    private static final String TAG = "MediaPrefetcher";
+    // The fraction of the bandwidth estimate AdaptiveTrackSelection uses for its first selection.
+    private static final float START_BANDWIDTH_FRACTION = 0.7f;
+
+    @Nullable private static MediaPrefetcher instance;
+
+    private final Context context;
+    private final BandwidthMeter bandwidthMeter;
+    private final DataSource.Factory manifestDataSourceFactory;
+    private final ExecutorService executorService;
+    private final long prefetchDurationUs;
+    private final long maxBytesPerItem;
+    private final CacheStats cacheStats;
+    private final List<Task> tasks;
+    // Paused workers wait on this lock until the foreground player stops loading.
+    private final Object foregroundLoadingLock;
+    private final CustomLoadControl.LoadingListener foregroundLoadingListener;
+
+    @Nullable private CacheDataSource.Factory cacheDataSourceFactory;
+    @Nullable private volatile CustomLoadControl foregroundLoadControl;
+    @Nullable private volatile Listener listener;
+
+    /** Returns the process-wide instance, using the {@code DEFAULT_*} constants. */
+    public static synchronized MediaPrefetcher getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            instance =
+                    new MediaPrefetcher(
+                            applicationContext,
+                            PersistentBandwidthMeter.getSingletonInstance(applicationContext),
+                            DEFAULT_THREAD_COUNT,
+                            DEFAULT_PREFETCH_DURATION_MS,
+                            DEFAULT_MAX_BYTES_PER_ITEM);
+        }
+        return instance;
+    }
+
+    /**
+     * @param context A context.
+     * @param bandwidthMeter The {@link BandwidthMeter} used to guess the starting rendition.
+     * @param threadCount The number of worker threads.
+     * @param prefetchDurationMs The duration of media prefetched per item, in milliseconds.
+     * @param maxBytesPerItem The maximum number of bytes prefetched per item.
+     */
+    public MediaPrefetcher(
+            Context context,
+            BandwidthMeter bandwidthMeter,
+            int threadCount,
+            int prefetchDurationMs,
+            long maxBytesPerItem) {
+        Assertions.checkArgument(threadCount > 0);
+        Assertions.checkArgument(maxBytesPerItem > 0);
+        this.context = context.getApplicationContext();
+        this.bandwidthMeter = bandwidthMeter;
+        this.prefetchDurationUs = C.msToUs(prefetchDurationMs);
+        this.maxBytesPerItem = maxBytesPerItem;
+        // Manifests go through the manifest cache, so prefetching also warms it.
+        manifestDataSourceFactory =
+                com.example.exoplayercompose.util.Util.buildManifestDataSourceFactory(this.context);
+        executorService =
+                Executors.newFixedThreadPool(
+                        threadCount, runnable -> new Thread(runnable, "ExoplayerCompose:Prefetch"));
+        cacheStats = new CacheStats();
+        tasks = new ArrayList<>();
+        foregroundLoadingLock = new Object();
+        foregroundLoadingListener =
+                (loadControl, isLoading) -> {
+                    if (!isLoading) {
+                        wakePausedWorkers();
+                    }
+                };
+    }
+
+    /**
+     * Sets the load control of the foreground player. Prefetching pauses while it is loading.
+     *
+     * @param loadControl The foreground {@link CustomLoadControl}, or null to never pause.
+     */
+    public void setForegroundLoadControl(@Nullable CustomLoadControl loadControl) {
+        @Nullable CustomLoadControl previousLoadControl = foregroundLoadControl;
+        if (previousLoadControl == loadControl) {
+            return;
+        }
+        if (previousLoadControl != null) {
+            previousLoadControl.setLoadingListener(null);
+        }
+        if (loadControl != null) {
+            loadControl.setLoadingListener(foregroundLoadingListener);
+        }
+        foregroundLoadControl = loadControl;
+        // Workers paused for the previous load control check the new one.
+        wakePausedWorkers();
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getMaxBytesPerItem() {
+        return maxBytesPerItem;
+    }
+
+    /** Returns the cache hit and miss bytes of all prefetches. */
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    /**
+     * Queues a URI for prefetching.
+     *
+     * @param uri The URI of the media to prefetch.
+     * @return The queued {@link Task}, which can be used to cancel it.
+     */
+    public synchronized Task prefetch(Uri uri) {
+        Task task = new Task(uri);
+        tasks.add(task);
+        task.future = executorService.submit(task);
+        return task;
+    }
+
+    /** Cancels all queued and running tasks. */
+    public void cancelAll() {
+        List<Task> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(this.tasks);
+        }
+        for (Task task : tasks) {
+            task.cancel();
+        }
+    }
+
+    /** Cancels all tasks and stops the worker threads. The instance can't be used afterwards. */
+    public void release() {
+        cancelAll();
+        executorService.shutdownNow();
+        synchronized (MediaPrefetcher.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+    }
+
+    private void prefetchHls(Task task) throws IOException {
+        HlsPlaylist playlist = loadManifest(new HlsPlaylistParser(), task.uri);
+        HlsMediaPlaylist mediaPlaylist;
+        if (playlist instanceof HlsMultivariantPlaylist) {
+            HlsMultivariantPlaylist multivariantPlaylist = (HlsMultivariantPlaylist) playlist;
+            if (multivariantPlaylist.variants.isEmpty()) {
+                return;
+            }
+            int[] bitrates = new int[multivariantPlaylist.variants.size()];
+            for (int i = 0; i < bitrates.length; i++) {
+                bitrates[i] = multivariantPlaylist.variants.get(i).format.bitrate;
+            }
+            Uri variantUri = multivariantPlaylist.variants.get(selectStartIndex(bitrates)).url;
+            mediaPlaylist =
+                    (HlsMediaPlaylist)
+                            loadManifest(new HlsPlaylistParser(multivariantPlaylist, null), variantUri);
+        } else {
+            mediaPlaylist = (HlsMediaPlaylist) playlist;
+        }
+        if (!mediaPlaylist.hasEndTag) {
+            return;
+        }
+        @Nullable HlsMediaPlaylist.Segment lastInitializationSegment = null;
+        long durationUs = 0;
+        for (HlsMediaPlaylist.Segment segment : mediaPlaylist.segments) {
+            if (segment.initializationSegment != null
+                    && segment.initializationSegment != lastInitializationSegment) {
+                lastInitializationSegment = segment.initializationSegment;
+                cache(task, buildHlsDataSpec(mediaPlaylist, lastInitializationSegment));
+            }
+            if (!cache(task, buildHlsDataSpec(mediaPlaylist, segment))) {
+                return;
+            }
+            durationUs += segment.durationUs;
+            if (durationUs >= prefetchDurationUs) {
+                return;
+            }
+        }
+    }
+
+    private static DataSpec buildHlsDataSpec(
+            HlsMediaPlaylist playlist, HlsMediaPlaylist.Segment segment) {
+        return new DataSpec(
+                UriUtil.resolveToUri(playlist.baseUri, segment.url),
+                segment.byteRangeOffset,
+                segment.byteRangeLength);
+    }
+
+    private void prefetchDash(Task task) throws IOException {
+        DashManifest manifest = loadManifest(new DashManifestParser(), task.uri);
+        if (manifest.dynamic || manifest.getPeriodCount() == 0) {
+            return;
+        }
+        Period period = manifest.getPeriod(0);
+        long periodDurationUs = manifest.getPeriodDurationUs(0);
+        for (int trackType : new int[] {C.TRACK_TYPE_VIDEO, C.TRACK_TYPE_AUDIO}) {
+            int adaptationSetIndex = period.getAdaptationSetIndex(trackType);
+            if (adaptationSetIndex == C.INDEX_UNSET) {
+                continue;
+            }
+            List<Representation> representations =
+                    period.adaptationSets.get(adaptationSetIndex).representations;
+            if (representations.isEmpty()) {
+                continue;
+            }
+            int[] bitrates = new int[representations.size()];
+            for (int i = 0; i < bitrates.length; i++) {
+                bitrates[i] = representations.get(i).format.bitrate;
+            }
+            if (!prefetchRepresentation(
+                    task, representations.get(selectStartIndex(bitrates)), periodDurationUs)) {
+                return;
+            }
+        }
+    }
+
+    /** Returns false if the byte cap was reached. */
+    private boolean prefetchRepresentation(
+            Task task, Representation representation, long periodDurationUs) throws IOException {
+        String baseUrl = representation.baseUrls.get(0).url;
+        @Nullable RangedUri initializationUri = representation.getInitializationUri();
+        if (initializationUri != null) {
+            cache(task, DashUtil.buildDataSpec(representation, baseUrl, initializationUri, 0));
+        }
+        @Nullable DashSegmentIndex index = representation.getIndex();
+        if (index == null) {
+            // A single segment indexed by a sidx box. Cache the start of the file, sized for the
+            // prefetch duration at the representation's bitrate.
+            @Nullable RangedUri indexUri = representation.getIndexUri();
+            if (indexUri != null) {
+                cache(task, DashUtil.buildDataSpec(representation, baseUrl, indexUri, 0));
+            }
+            long length = C.LENGTH_UNSET;
+            int bitrate = representation.format.bitrate;
+            if (bitrate != Format.NO_VALUE) {
+                length = prefetchDurationUs * bitrate / C.BITS_PER_BYTE / C.MICROS_PER_SECOND;
+            }
+            return cache(
+                    task,
+                    DashUtil.buildDataSpec(
+                            representation, baseUrl, new RangedUri(null, 0, length), 0));
+        }
+        long firstSegmentNum = index.getFirstSegmentNum();
+        long segmentCount = index.getSegmentCount(periodDurationUs);
+        long startTimeUs = index.getTimeUs(firstSegmentNum);
+        for (long segmentNum = firstSegmentNum;
+                segmentCount == DashSegmentIndex.INDEX_UNBOUNDED
+                        || segmentNum < firstSegmentNum + segmentCount;
+                segmentNum++) {
+            RangedUri segmentUri = index.getSegmentUrl(segmentNum);
+            if (!cache(task, DashUtil.buildDataSpec(representation, baseUrl, segmentUri, 0))) {
+                return false;
+            }
+            long endTimeUs =
+                    index.getTimeUs(segmentNum) + index.getDurationUs(segmentNum, periodDurationUs);
+            if (endTimeUs - startTimeUs >= prefetchDurationUs) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the bitrate {@code AdaptiveTrackSelection} is expected to start with:
+     * the highest one that fits the bandwidth estimate, or the lowest one if none fits.
+     */
+    private int selectStartIndex(int[] bitrates) {
+        long effectiveBitrate =
+                (long) (bandwidthMeter.getBitrateEstimate() * START_BANDWIDTH_FRACTION);
+        int selectedIndex = C.INDEX_UNSET;
+        int lowestIndex = 0;
+        for (int i = 0; i < bitrates.length; i++) {
+            if (bitrates[i] < bitrates[lowestIndex]) {
+                lowestIndex = i;
+            }
+            if (bitrates[i] <= effectiveBitrate
+                    && (selectedIndex == C.INDEX_UNSET || bitrates[i] > bitrates[selectedIndex])) {
+                selectedIndex = i;
+            }
+        }
+        return selectedIndex == C.INDEX_UNSET ? lowestIndex : selectedIndex;
+    }
+
+    private <T> T loadManifest(ParsingLoadable.Parser<T> parser, Uri uri) throws IOException {
+        return ParsingLoadable.load(
+                manifestDataSourceFactory.createDataSource(), parser, uri, C.DATA_TYPE_MANIFEST);
+    }
+
+    /**
+     * Writes {@code dataSpec} into the cache, truncated to the bytes left under the per-item cap.
+     * Waits first while the foreground player is loading.
+     *
+     * @return Whether bytes are left under the per-item cap.
+     */
+    private boolean cache(Task task, DataSpec dataSpec) throws IOException {
+        waitForForegroundLoading(task);
+        long remainingBytes = maxBytesPerItem - task.bytesCached;
+        if (remainingBytes <= 0) {
+            return false;
+        }
+        if (dataSpec.length == C.LENGTH_UNSET || dataSpec.length > remainingBytes) {
+            dataSpec = dataSpec.subrange(0, remainingBytes);
+        }
+        long bytesCachedBefore = task.bytesCached;
+        CacheWriter cacheWriter =
+                new CacheWriter(
+                        getCacheDataSourceFactory().createDataSource(),
+                        dataSpec,
+                        /* temporaryBuffer= */ null,
+                        (requestLength, bytesCached, newBytesCached) ->
+                                task.bytesCached = bytesCachedBefore + bytesCached);
+        task.cacheWriter = cacheWriter;
+        if (task.canceled) {
+            throw new InterruptedIOException();
+        }
+        try {
+            cacheWriter.cache();
+        } finally {
+            task.cacheWriter = null;
+        }
+        return task.bytesCached < maxBytesPerItem;
+    }
+
+    /**
+     * Blocks while the foreground player is loading. The state is checked under {@link
+     * #foregroundLoadingLock}, which {@link #wakePausedWorkers()} also takes, so a change between the
+     * check and the wait isn't missed.
+     */
+    private void waitForForegroundLoading(Task task) throws InterruptedIOException {
+        synchronized (foregroundLoadingLock) {
+            @Nullable CustomLoadControl loadControl;
+            while ((loadControl = foregroundLoadControl) != null && loadControl.isLoading()) {
+                if (task.canceled) {
+                    throw new InterruptedIOException();
+                }
+                try {
+                    foregroundLoadingLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    // Called when the foreground player stops loading or changes, or a task is canceled.
+    private void wakePausedWorkers() {
+        synchronized (foregroundLoadingLock) {
+            foregroundLoadingLock.notifyAll();
+        }
+    }
+
+    // Created lazily on a worker thread, since building it opens the download cache.
+    private synchronized CacheDataSource.Factory getCacheDataSourceFactory() {
+        if (cacheDataSourceFactory == null) {
+            cacheDataSourceFactory =
+                    com.example.exoplayercompose.util.Util.buildCacheDataSourceFactory(
+                            context, cacheStats);
+        }
+        return cacheDataSourceFactory;
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.exoplayercompose.player;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+import android.util.SparseArray;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.AtomicFile;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.NetworkTypeObserver;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link BandwidthMeter} that keeps a sliding-window percentile estimate per network type and
+ * persists the windows across sessions, so a new process starts from the throughput it last saw on
+ * the same kind of network rather than from country-level defaults.
+ *
+ * <p>Samples are taken the same way as {@link DefaultBandwidthMeter}: one sample per period of
+ * network activity, weighted by the square root of the bytes transferred. The windows are written
+ * to a small binary file on a background thread, at most once every {@link #PERSIST_INTERVAL_MS}.
+ * Until the current network type has history, the estimate falls back to {@link
+ * DefaultBandwidthMeter}'s initial estimate.
+ */
+public final class PersistentBandwidthMeter implements BandwidthMeter, TransferListener {
+
+    /** The maximum total weight of the samples in a window, as in {@link DefaultBandwidthMeter}. */
+    public static final int MAX_WEIGHT = 2000;
+    /** The percentile used as the estimate. */
+    public static final float ESTIMATE_PERCENTILE = 0.5f;
+    /** The minimum interval between writes of the history file, in milliseconds. */
+    public static final long PERSIST_INTERVAL_MS = 10_000;
+
+    private static final String TAG = "PersistentBwMeter";
+    private static final String HISTORY_FILE_NAME = "bandwidth_history";
+    private static final int HISTORY_FILE_VERSION = 1;
+    // Maximum number of samples read per network type, to guard against corrupt files.
+    private static final int MAX_PERSISTED_SAMPLES = 1024;
+
+    @Nullable private static PersistentBandwidthMeter singletonInstance;
+
+    /** A sliding window of weighted bitrate samples for one network type. */
+    private static final class Window {
+
+        private final ArrayDeque<float[]> samples;
+        private int totalWeight;
+
+        public Window() {
+            samples = new ArrayDeque<>();
+        }
+
+        public void addSample(int weight, float bitrate) {
+            samples.addLast(new float[] {weight, bitrate});
+            totalWeight += weight;
+            while (totalWeight > MAX_WEIGHT && samples.size() > 1) {
+                totalWeight -= (int) samples.removeFirst()[0];
+            }
+        }
+
+        public boolean isEmpty() {
+            return samples.isEmpty();
+        }
+
+        public long getPercentile(float percentile) {
+            float[][] sorted = samples.toArray(new float[0][]);
+            Arrays.sort(sorted, (lhs, rhs) -> Float.compare(lhs[1], rhs[1]));
+            float desiredWeight = percentile * totalWeight;
+            int accumulatedWeight = 0;
+            for (float[] sample : sorted) {
+                accumulatedWeight += (int) sample[0];
+                if (accumulatedWeight >= desiredWeight) {
+                    return (long) sample[1];
+                }
+            }
+            return (long) sorted[sorted.length - 1][1];
+        }
+
+        public float getConfidence() {
+            return Math.min(1f, (float) totalWeight / MAX_WEIGHT);
+        }
+    }
+
+    private final Clock clock;
+    private final AtomicFile historyFile;
+    private final ExecutorService persistExecutor;
+    private final DefaultBandwidthMeter fallbackBandwidthMeter;
+    private final EventListener.EventDispatcher eventDispatcher;
+    private final SparseArray<Window> windows;
+    // Held strongly, since NetworkTypeObserver only keeps weak references to its listeners.
+    private final NetworkTypeObserver.Listener networkTypeListener;
+
+    private int networkType;
+    private Window window;
+    private int streamCount;
+    private long sampleStartTimeMs;
+    private long sampleBytesTransferred;
+    private long bitrateEstimate;
+    private long lastPersistTimeMs;
+
+    /** Returns the process-wide instance, loading its history on first use. */
+    public static synchronized PersistentBandwidthMeter getSingletonInstance(Context context) {
+        if (singletonInstance == null) {
+            singletonInstance = new PersistentBandwidthMeter(context, Clock.DEFAULT);
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * Creates an instance and reads its history from disk. Prefer {@link
+     * #getSingletonInstance(Context)}, since all instances share the same history file.
+     *
+     * @param context A context.
+     * @param clock The {@link Clock} used to time transfers.
+     */
+    public PersistentBandwidthMeter(Context context, Clock clock) {
+        Context applicationContext = context.getApplicationContext();
+        this.clock = clock;
+        historyFile = new AtomicFile(new File(applicationContext.getFilesDir(), HISTORY_FILE_NAME));
+        persistExecutor =
+                Executors.newSingleThreadExecutor(
+                        runnable -> new Thread(runnable, "ExoplayerCompose:BandwidthHistory"));
+        fallbackBandwidthMeter = new DefaultBandwidthMeter.Builder(applicationContext).build();
+        eventDispatcher = new EventListener.EventDispatcher();
+        windows = new SparseArray<>();
+        readHistory();
+        networkType = C.NETWORK_TYPE_UNKNOWN;
+        window = getWindow(networkType);
+        bitrateEstimate = getEstimateForCurrentNetwork();
+        networkTypeListener = this::onNetworkTypeChanged;
+        NetworkTypeObserver.getInstance(applicationContext).register(networkTypeListener);
+    }
+
+    @Override
+    public synchronized long getBitrateEstimate() {
+        return bitrateEstimate;
+    }
+
+    /**
+     * Returns how much history backs the current estimate, from 0 (none, the estimate is a
+     * country-level default) to 1 (a full window of samples on the current network type).
+     */
+    public synchronized float getConfidence() {
+        return window.isEmpty() ? 0f : window.getConfidence();
+    }
+
+    /** Returns the {@code C.NETWORK_TYPE_*} the current estimate is for. */
+    public synchronized int getNetworkType() {
+        return networkType;
+    }
+
+    @Override
+    public TransferListener getTransferListener() {
+        return this;
+    }
+
+    @Override
+    public void addEventListener(Handler eventHandler, EventListener eventListener) {
+        eventDispatcher.addListener(eventHandler, eventListener);
+    }
+
+    @Override
+    public void removeEventListener(EventListener eventListener) {
+        eventDispatcher.removeListener(eventListener);
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        // Do nothing.
+    }
+
+    @Override
+    public synchronized void onTransferStart(
+            DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+            return;
+        }
+        if (streamCount == 0) {
+            sampleStartTimeMs = clock.elapsedRealtime();
+        }
+        streamCount++;
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(
+            DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+            return;
+        }
+        sampleBytesTransferred += bytesTransferred;
+    }
+
+    @Override
+    public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork) || streamCount == 0) {
+            return;
+        }
+        long nowMs = clock.elapsedRealtime();
+        int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
+        if (sampleElapsedTimeMs > 0 && sampleBytesTransferred > 0) {
+            float bitsPerSecond =
+                    (sampleBytesTransferred * C.BITS_PER_BYTE * 1000f) / sampleElapsedTimeMs;
+            window.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
+            bitrateEstimate = window.getPercentile(ESTIMATE_PERCENTILE);
+            eventDispatcher.bandwidthSample(
+                    sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
+            maybePersistHistory(nowMs);
+        }
+        streamCount--;
+        if (streamCount > 0) {
+            sampleStartTimeMs = nowMs;
+        }
+        sampleBytesTransferred = 0;
+    }
+
+    private synchronized void onNetworkTypeChanged(int networkType) {
+        if (this.networkType == networkType) {
+            return;
+        }
+        this.networkType = networkType;
+        window = getWindow(networkType);
+        long newBitrateEstimate = getEstimateForCurrentNetwork();
+        // Report the change as a sample with no transfer, as DefaultBandwidthMeter does.
+        if (newBitrateEstimate != bitrateEstimate) {
+            bitrateEstimate = newBitrateEstimate;
+            eventDispatcher.bandwidthSample(0, 0, bitrateEstimate);
+        }
+        // Restart any ongoing sample, since it spans two networks.
+        sampleStartTimeMs = clock.elapsedRealtime();
+        sampleBytesTransferred = 0;
+    }
+
+    private long getEstimateForCurrentNetwork() {
+        return window.isEmpty()
+                ? fallbackBandwidthMeter.getBitrateEstimate()
+                : window.getPercentile(ESTIMATE_PERCENTILE);
+    }
+
+    private Window getWindow(int networkType) {
+        Window window = windows.get(networkType);
+        if (window == null) {
+            window = new Window();
+            windows.put(networkType, window);
+        }
+        return window;
+    }
+
+    private void maybePersistHistory(long nowMs) {
+        if (lastPersistTimeMs != 0 && nowMs - lastPersistTimeMs < PERSIST_INTERVAL_MS) {
+            return;
+        }
+        lastPersistTimeMs = nowMs;
+        // Snapshot under the lock; the write itself happens off the loading threads.
+        int[] networkTypes = new int[windows.size()];
+        float[][][] samples = new float[windows.size()][][];
+        for (int i = 0; i < windows.size(); i++) {
+            networkTypes[i] = windows.keyAt(i);
+            samples[i] = windows.valueAt(i).samples.toArray(new float[0][]);
+        }
+        persistExecutor.execute(() -> writeHistory(networkTypes, samples));
+    }
+
+    private void writeHistory(int[] networkTypes, float[][][] samples) {
+        try {
+            OutputStream outputStream = historyFile.startWrite();
+            DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(HISTORY_FILE_VERSION);
+            output.writeInt(networkTypes.length);
+            for (int i = 0; i < networkTypes.length; i++) {
+                output.writeInt(networkTypes[i]);
+                output.writeInt(samples[i].length);
+                for (float[] sample : samples[i]) {
+                    output.writeInt((int) sample[0]);
+                    output.writeFloat(sample[1]);
+                }
+            }
+            output.flush();
+            historyFile.endWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write bandwidth history", e);
+        }
+    }
+
+    private void readHistory() {
+        if (!historyFile.exists()) {
+            return;
+        }
+        try (InputStream inputStream = historyFile.openRead()) {
+            DataInputStream input = new DataInputStream(inputStream);
+            if (input.readInt() != HISTORY_FILE_VERSION) {
+                return;
+            }
+            int windowCount = input.readInt();
+            for (int i = 0; i < windowCount; i++) {
+                int networkType = input.readInt();
+                int sampleCount = input.readInt();
+                if (sampleCount < 0 || sampleCount > MAX_PERSISTED_SAMPLES) {
+                    throw new IOException("Invalid sample count: " + sampleCount);
+                }
+                Window window = getWindow(networkType);
+                for (int j = 0; j < sampleCount; j++) {
+                    int weight = input.readInt();
+                    window.addSample(weight, input.readFloat());
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable bandwidth history", e);
+            windows.clear();
+            historyFile.delete();
+        }
+    }
+
+    private static boolean isTransferAtFullNetworkSpeed(DataSpec dataSpec, boolean isNetwork) {
+        return isNetwork && !dataSpec.isFlagSet(DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED);
+    }
+}
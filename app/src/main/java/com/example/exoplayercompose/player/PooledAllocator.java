@@ -0,0 +1,168 @@
+package com.example.exoplayercompose.player;
+
+import static java.lang.Math.max;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.util.Arrays;
+
+/**
+ * A {@link BufferAllocator} that behaves like {@link
+ * com.google.android.exoplayer2.upstream.DefaultAllocator}, except that segments released by
+ * {@link #trim()} and {@link #reset()} are handed to a {@link SegmentPool} instead of the garbage
+ * collector, and new segments are taken from that pool before being allocated.
+ *
+ * <p>Sharing one pool between the players of a feed means switching videos reuses the previous
+ * player's segments instead of allocating them all again.
+ */
+public final class PooledAllocator implements BufferAllocator {
+
+    private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+
+    private final SegmentPool segmentPool;
+    private final int individualAllocationSize;
+
+    private int targetBufferSize;
+    private int allocatedCount;
+    private int availableCount;
+    private Allocation[] availableAllocations;
+
+    private long newSegmentCount;
+    private long recycledSegmentCount;
+    private int highWaterMarkBytes;
+
+    /** Constructs an instance that uses the {@link SegmentPool#getSharedInstance() shared pool}. */
+    public PooledAllocator() {
+        this(SegmentPool.getSharedInstance());
+    }
+
+    /**
+     * @param segmentPool The {@link SegmentPool} to take segments from and return them to.
+     */
+    public PooledAllocator(SegmentPool segmentPool) {
+        this.segmentPool = segmentPool;
+        this.individualAllocationSize = segmentPool.getSegmentSize();
+        availableAllocations = new Allocation[AVAILABLE_EXTRA_CAPACITY];
+    }
+
+    @Override
+    public synchronized void reset() {
+        setTargetBufferSize(0);
+    }
+
+    @Override
+    public synchronized void setTargetBufferSize(int targetBufferSize) {
+        boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+        this.targetBufferSize = targetBufferSize;
+        if (targetBufferSizeReduced) {
+            trim();
+        }
+    }
+
+    @Override
+    public synchronized Allocation allocate() {
+        allocatedCount++;
+        highWaterMarkBytes = max(highWaterMarkBytes, allocatedCount * individualAllocationSize);
+        Allocation allocation;
+        if (availableCount > 0) {
+            allocation = Assertions.checkNotNull(availableAllocations[--availableCount]);
+            availableAllocations[availableCount] = null;
+        } else {
+            @Nullable byte[] segment = segmentPool.acquire();
+            if (segment != null) {
+                recycledSegmentCount++;
+            } else {
+                segment = new byte[individualAllocationSize];
+                newSegmentCount++;
+            }
+            allocation = new Allocation(segment, 0);
+            if (allocatedCount > availableAllocations.length) {
+                // Make sure all allocations can be returned without growing the array.
+                availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
+            }
+        }
+        return allocation;
+    }
+
+    @Override
+    public synchronized void release(Allocation allocation) {
+        availableAllocations[availableCount++] = allocation;
+        allocatedCount--;
+        // Wake up threads waiting for the allocated size to drop.
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void release(@Nullable AllocationNode allocationNode) {
+        while (allocationNode != null) {
+            availableAllocations[availableCount++] = allocationNode.getAllocation();
+            allocatedCount--;
+            allocationNode = allocationNode.next();
+        }
+        // Wake up threads waiting for the allocated size to drop.
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void trim() {
+        int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
+        int targetAvailableCount = max(0, targetAllocationCount - allocatedCount);
+        if (targetAvailableCount >= availableCount) {
+            // We're already at or below the target.
+            return;
+        }
+        for (int i = targetAvailableCount; i < availableCount; i++) {
+            segmentPool.offer(Assertions.checkNotNull(availableAllocations[i]).data);
+            availableAllocations[i] = null;
+        }
+        availableCount = targetAvailableCount;
+    }
+
+    @Override
+    public synchronized int getTotalBytesAllocated() {
+        return allocatedCount * individualAllocationSize;
+    }
+
+    /**
+     * Makes the {@link SegmentPool} track memory pressure. The pool is shared with other allocators,
+     * so it keeps a single pressure level of its own.
+     */
+    @Override
+    public void trimOnMemoryPressure(Context context, int recoveryMs) {
+        segmentPool.trimOnMemoryPressure(context, recoveryMs);
+    }
+
+    @Override
+    public synchronized int getRetainedBytes() {
+        return (allocatedCount + availableCount) * individualAllocationSize
+                + segmentPool.getPooledSegmentCount() * segmentPool.getSegmentSize();
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+        return individualAllocationSize;
+    }
+
+    /** Returns the number of segments this allocator had to allocate because the pool was empty. */
+    public synchronized long getNewSegmentCount() {
+        return newSegmentCount;
+    }
+
+    /** Returns the number of segments this allocator took from the {@link SegmentPool}. */
+    public synchronized long getRecycledSegmentCount() {
+        return recycledSegmentCount;
+    }
+
+    /** Returns the largest number of bytes this allocator had allocated at once. */
+    public synchronized int getHighWaterMarkBytes() {
+        return highWaterMarkBytes;
+    }
+
+    /** Returns the number of free segments held by this allocator, not counting the pool. */
+    public synchronized int getAvailableSegmentCount() {
+        return availableCount;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.exoplayercompose.player;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SeekParameters;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.source.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaLoadData;
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.IOException;
+
+/**
+ * Coalesces the seeks of a scrub gesture on an {@link ExoPlayer}.
+ *
+ * <p>While scrubbing, at most one seek is in flight: it is issued with {@link
+ * SeekParameters#CLOSEST_SYNC}, so it resolves to a sync frame without decoding up to the exact
+ * position. Positions requested while it is in flight replace each other, and only the latest one
+ * is sought to once the player is ready again. {@link #stopScrub} restores the previous seek
+ * parameters and makes one precise seek to the final position.
+ *
+ * <p>The loads started by the issued seeks are counted, and at the end of a scrub the requests and
+ * bytes that the coalesced seeks would have caused are estimated from their average.
+ *
+ * <p>Must be used on the application thread of the player.
+ */
+public final class ScrubSeeker implements AnalyticsListener {
+
+    /** Listener for completed scrubs. */
+    public interface Listener {
+
+        /** Called at the end of each scrub. The {@link ScrubStats} must not be retained. */
+        void onScrubEnded(ScrubStats stats);
+    }
+
+    /** Counters for one scrub. */
+    public static final class ScrubStats {
+
+        /** The number of positions requested by {@link #scrubTo}. */
+        public int requestedSeekCount;
+        /** The number of seeks that were issued, including the final precise one. */
+        public int issuedSeekCount;
+        /** The number of loads started by the issued seeks. */
+        public int loadCount;
+        /** The number of bytes loaded for the issued seeks. */
+        public long bytesLoaded;
+        /** The estimated number of loads avoided by coalescing. */
+        public long avoidedLoadCount;
+        /** The estimated number of bytes avoided by coalescing. */
+        public long avoidedBytes;
+
+        private void reset() {
+            requestedSeekCount = 0;
+            issuedSeekCount = 0;
+            loadCount = 0;
+            bytesLoaded = 0;
+            avoidedLoadCount = 0;
+            avoidedBytes = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "ScrubStats{requested=" + requestedSeekCount + ", issued=" + issuedSeekCount
+                    + ", loads=" + loadCount + ", bytes=" + bytesLoaded
+                    + ", avoidedLoads=" + avoidedLoadCount + ", avoidedBytes=" + avoidedBytes + "}";
+        }
+    }
+
+    private final ExoPlayer player;
+    @Nullable private final Listener listener;
+    private final ScrubStats stats;
+
+    private boolean isScrubbing;
+    private boolean isSeekInFlight;
+    private boolean hasPendingSeek;
+    private long latestPositionMs;
+    private SeekParameters previousSeekParameters;
+    private boolean previousPlayWhenReady;
+
+    /**
+     * @param player The player to seek.
+     * @param listener A listener for completed scrubs, or null.
+     */
+    public ScrubSeeker(ExoPlayer player, @Nullable Listener listener) {
+        this.player = player;
+        this.listener = listener;
+        stats = new ScrubStats();
+        previousSeekParameters = SeekParameters.DEFAULT;
+        player.addAnalyticsListener(this);
+    }
+
+    /** Returns whether a scrub is in progress. */
+    public boolean isScrubbing() {
+        return isScrubbing;
+    }
+
+    /**
+     * Requests a seek to {@code positionMs}, starting a scrub if none is in progress. The seek is
+     * issued right away if no other seek is in flight, or when the one in flight completes if no
+     * later position was requested in the meantime.
+     */
+    public void scrubTo(long positionMs) {
+        if (!isScrubbing) {
+            startScrub();
+        }
+        stats.requestedSeekCount++;
+        latestPositionMs = positionMs;
+        hasPendingSeek = true;
+        if (!isSeekInFlight) {
+            issuePendingSeek();
+        }
+    }
+
+    /**
+     * Ends the scrub with a precise seek to the last requested position, and restores the seek
+     * parameters and {@code playWhenReady} the player had before it. Does nothing if no scrub is
+     * in progress.
+     */
+    public void stopScrub() {
+        if (!isScrubbing) {
+            return;
+        }
+        isScrubbing = false;
+        isSeekInFlight = false;
+        hasPendingSeek = false;
+        player.setSeekParameters(previousSeekParameters);
+        player.seekTo(latestPositionMs);
+        stats.issuedSeekCount++;
+        player.setPlayWhenReady(previousPlayWhenReady);
+
+        // Without coalescing, every requested position is a full seek. Those are assumed to load
+        // as much as the seeks issued during the drag did on average. The final seek's loads
+        // happen after the scrub, so it is left out of the average.
+        int avoidedSeekCount = stats.requestedSeekCount - stats.issuedSeekCount;
+        int countedSeekCount = stats.issuedSeekCount - 1;
+        if (avoidedSeekCount > 0 && countedSeekCount > 0) {
+            stats.avoidedLoadCount = (long) avoidedSeekCount * stats.loadCount / countedSeekCount;
+            stats.avoidedBytes = avoidedSeekCount * stats.bytesLoaded / countedSeekCount;
+        }
+        if (listener != null) {
+            listener.onScrubEnded(stats);
+        }
+    }
+
+    /** Ends any scrub and stops listening to the player. */
+    public void release() {
+        stopScrub();
+        player.removeAnalyticsListener(this);
+    }
+
+    // AnalyticsListener implementation.
+
+    @Override
+    public void onPlaybackStateChanged(EventTime eventTime, @Player.State int state) {
+        if (state != Player.STATE_BUFFERING) {
+            onSeekCompleted();
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame(EventTime eventTime, Object output, long renderTimeMs) {
+        onSeekCompleted();
+    }
+
+    @Override
+    public void onLoadStarted(
+            EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+        if (isScrubbing) {
+            stats.loadCount++;
+        }
+    }
+
+    @Override
+    public void onLoadCompleted(
+            EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+        if (isScrubbing) {
+            stats.bytesLoaded += loadEventInfo.bytesLoaded;
+        }
+    }
+
+    @Override
+    public void onLoadCanceled(
+            EventTime eventTime, LoadEventInfo loadEventInfo, MediaLoadData mediaLoadData) {
+        if (isScrubbing) {
+            stats.bytesLoaded += loadEventInfo.bytesLoaded;
+        }
+    }
+
+    @Override
+    public void onLoadError(
+            EventTime eventTime,
+            LoadEventInfo loadEventInfo,
+            MediaLoadData mediaLoadData,
+            IOException error,
+            boolean wasCanceled) {
+        if (isScrubbing) {
+            stats.bytesLoaded += loadEventInfo.bytesLoaded;
+        }
+    }
+
+    private void startScrub() {
+        isScrubbing = true;
+        stats.reset();
+        previousSeekParameters = player.getSeekParameters();
+        previousPlayWhenReady = player.getPlayWhenReady();
+        // Frames shown while dragging come from sync samples, so decoding doesn't lag the finger.
+        player.setSeekParameters(SeekParameters.CLOSEST_SYNC);
+        player.setPlayWhenReady(false);
+    }
+
+    private void onSeekCompleted() {
+        if (!isScrubbing || !isSeekInFlight) {
+            return;
+        }
+        isSeekInFlight = false;
+        if (hasPendingSeek) {
+            issuePendingSeek();
+        }
+    }
+
+    private void issuePendingSeek() {
+        Assertions.checkState(hasPendingSeek);
+        hasPendingSeek = false;
+        stats.issuedSeekCount++;
+        // An idle player reports no state change for a seek, so there is nothing to wait for.
+        isSeekInFlight = player.getPlaybackState() != Player.STATE_IDLE;
+        player.seekTo(latestPositionMs);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.exoplayercompose.player;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded, thread-safe pool of segment arrays shared by {@link PooledAllocator} instances, so
+ * that segments freed by one player (or by a reset) are reused by the next one instead of being
+ * garbage collected and allocated again.
+ *
+ * <p>The pool is shared by every player of the process, so it keeps a single memory pressure level
+ * of its own, see {@link #trimOnMemoryPressure}, rather than following the level of any one player.
+ */
+public final class SegmentPool {
+
+    /** The default maximum number of pooled segments, 16MB of {@link C#DEFAULT_BUFFER_SEGMENT_SIZE}. */
+    public static final int DEFAULT_MAX_POOLED_SEGMENTS = 256;
+
+    /**
+     * The fraction of {@link #getMaxPooledSegments()} kept for each {@code
+     * CustomLoadControl.MEMORY_PRESSURE_*} level. The pool is emptied under critical pressure.
+     */
+    private static final float[] RETENTION_FRACTIONS = {1f, 0.5f, 0.25f, 0f};
+
+    @Nullable private static SegmentPool sharedInstance;
+
+    private final int segmentSize;
+    private final int maxPooledSegments;
+    private final ArrayDeque<byte[]> segments;
+
+    private int pooledSegmentLimit;
+
+    @Nullable private ComponentCallbacks2 memoryCallbacks;
+    private int memoryPressureRecoveryMs;
+    private int memoryPressureLevel;
+    private long lastTrimMemoryTimeMs;
+
+    private long hitCount;
+    private long missCount;
+    private long droppedCount;
+
+    /** Returns the process-wide pool of {@link C#DEFAULT_BUFFER_SEGMENT_SIZE} segments. */
+    public static synchronized SegmentPool getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new SegmentPool(C.DEFAULT_BUFFER_SEGMENT_SIZE, DEFAULT_MAX_POOLED_SEGMENTS);
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * @param segmentSize The length of each segment array, in bytes.
+     * @param maxPooledSegments The maximum number of free segments the pool keeps.
+     */
+    public SegmentPool(int segmentSize, int maxPooledSegments) {
+        this.segmentSize = segmentSize;
+        this.maxPooledSegments = maxPooledSegments;
+        pooledSegmentLimit = maxPooledSegments;
+        segments = new ArrayDeque<>(maxPooledSegments);
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** Returns the maximum number of free segments the pool keeps without memory pressure. */
+    public int getMaxPooledSegments() {
+        return maxPooledSegments;
+    }
+
+    /**
+     * Makes the pool react to {@link ComponentCallbacks2#onTrimMemory} levels, by registering a
+     * callback with the application context. Under pressure the pool keeps a half, a quarter or
+     * none of its maximum, dropping the segments beyond that right away. Each step is undone after
+     * {@code recoveryMs} without a new trim request. Calling it again only updates {@code
+     * recoveryMs}.
+     *
+     * @param context Any {@link Context}, its application context is used.
+     * @param recoveryMs The time without a trim request after which the pressure level is lowered
+     *     by one step, in milliseconds.
+     */
+    public synchronized void trimOnMemoryPressure(Context context, int recoveryMs) {
+        memoryPressureRecoveryMs = recoveryMs;
+        if (memoryCallbacks == null) {
+            memoryCallbacks = new MemoryCallbacks();
+            context.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+        }
+    }
+
+    /** Returns the {@code CustomLoadControl.MEMORY_PRESSURE_*} level the pool currently applies. */
+    public synchronized int getMemoryPressureLevel() {
+        maybeRecoverFromMemoryPressure();
+        return memoryPressureLevel;
+    }
+
+    /** Returns a pooled segment, or null if the pool is empty. */
+    @Nullable
+    public synchronized byte[] acquire() {
+        byte[] segment = segments.pollLast();
+        if (segment == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return segment;
+    }
+
+    /**
+     * Returns a segment to the pool. The segment is dropped for the garbage collector if the pool is
+     * full.
+     *
+     * @param segment The segment, which must be {@link #getSegmentSize()} bytes long.
+     */
+    public synchronized void offer(byte[] segment) {
+        maybeRecoverFromMemoryPressure();
+        if (segment.length != segmentSize || segments.size() >= pooledSegmentLimit) {
+            droppedCount++;
+            return;
+        }
+        segments.addLast(segment);
+    }
+
+    /** Drops all pooled segments, for example when the app is under memory pressure. */
+    public synchronized void clear() {
+        droppedCount += segments.size();
+        segments.clear();
+    }
+
+    /** Returns the number of free segments currently held by the pool. */
+    public synchronized int getPooledSegmentCount() {
+        return segments.size();
+    }
+
+    /** Returns the number of {@link #acquire()} calls served from the pool. */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** Returns the number of {@link #acquire()} calls that found the pool empty. */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /** Returns the number of segments dropped because the pool was full, cleared or shrunk. */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private synchronized void onMemoryPressure(int level) {
+        if (level == CustomLoadControl.MEMORY_PRESSURE_NONE) {
+            return;
+        }
+        lastTrimMemoryTimeMs = SystemClock.elapsedRealtime();
+        if (level > memoryPressureLevel) {
+            memoryPressureLevel = level;
+            updatePooledSegmentLimit();
+        }
+    }
+
+    /**
+     * Lowers the memory pressure level by one step for each {@link #memoryPressureRecoveryMs} that
+     * passed without a trim request. Nothing runs while the pool is unused, so this is checked
+     * whenever a segment is offered.
+     */
+    private void maybeRecoverFromMemoryPressure() {
+        if (memoryPressureLevel == CustomLoadControl.MEMORY_PRESSURE_NONE) {
+            return;
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - lastTrimMemoryTimeMs;
+        long steps = memoryPressureRecoveryMs == 0 ? memoryPressureLevel
+                : elapsedMs / memoryPressureRecoveryMs;
+        if (steps == 0) {
+            return;
+        }
+        memoryPressureLevel = (int) Math.max(CustomLoadControl.MEMORY_PRESSURE_NONE,
+                memoryPressureLevel - steps);
+        lastTrimMemoryTimeMs += steps * memoryPressureRecoveryMs;
+        updatePooledSegmentLimit();
+    }
+
+    /** Applies the limit of the current memory pressure level, dropping the segments beyond it. */
+    private void updatePooledSegmentLimit() {
+        pooledSegmentLimit = (int) (maxPooledSegments * RETENTION_FRACTIONS[memoryPressureLevel]);
+        while (segments.size() > pooledSegmentLimit) {
+            segments.pollFirst();
+            droppedCount++;
+        }
+    }
+
+    private final class MemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            onMemoryPressure(CustomLoadControl.toMemoryPressureLevel(level));
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            // Do nothing.
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.exoplayercompose.player;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A {@link BufferPolicy} that scales the configured buffer durations by how the pessimistic
+ * throughput (mean minus a multiple of the standard deviation) compares to a reference bitrate.
+ *
+ * <p>Fast and stable connections buffer less than configured, down to {@link #minScale}. Slow or
+ * erratic connections buffer more, up to {@link #maxScale}.
+ */
+public final class ThroughputScaledBufferPolicy implements BufferPolicy {
+
+    /** The default bitrate at which the configured buffer durations are used as-is. */
+    public static final long DEFAULT_REFERENCE_BITRATE = 4_000_000;
+
+    /** The default lower bound for the scale factor. */
+    public static final float DEFAULT_MIN_SCALE = 0.5f;
+
+    /** The default upper bound for the scale factor. */
+    public static final float DEFAULT_MAX_SCALE = 2f;
+
+    /** The default number of standard deviations subtracted from the mean throughput. */
+    public static final float DEFAULT_VARIANCE_PENALTY = 1f;
+
+    /** The default number of samples required before the durations are scaled. */
+    public static final int DEFAULT_MIN_SAMPLE_COUNT = 3;
+
+    private final long referenceBitrate;
+    private final float minScale;
+    private final float maxScale;
+    private final float variancePenalty;
+    private final int minSampleCount;
+
+    public ThroughputScaledBufferPolicy() {
+        this(
+                DEFAULT_REFERENCE_BITRATE,
+                DEFAULT_MIN_SCALE,
+                DEFAULT_MAX_SCALE,
+                DEFAULT_VARIANCE_PENALTY,
+                DEFAULT_MIN_SAMPLE_COUNT);
+    }
+
+    /**
+     * @param referenceBitrate The bitrate at which the configured durations are used as-is, in bits
+     *     per second.
+     * @param minScale The lower bound for the scale factor.
+     * @param maxScale The upper bound for the scale factor.
+     * @param variancePenalty The number of standard deviations subtracted from the mean throughput.
+     * @param minSampleCount The number of samples required before the durations are scaled.
+     */
+    public ThroughputScaledBufferPolicy(
+            long referenceBitrate,
+            float minScale,
+            float maxScale,
+            float variancePenalty,
+            int minSampleCount) {
+        this.referenceBitrate = referenceBitrate;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.variancePenalty = variancePenalty;
+        this.minSampleCount = minSampleCount;
+    }
+
+    @Override
+    public BufferTargets computeTargets(
+            long configuredMinBufferUs, long configuredMaxBufferUs, ThroughputStats stats) {
+        if (stats.getSampleCount() < minSampleCount) {
+            return new BufferTargets(configuredMinBufferUs, configuredMaxBufferUs);
+        }
+        long pessimisticBitrate =
+                max(1, stats.getMeanBitrate() - (long) (variancePenalty * stats.getStandardDeviation()));
+        float scale = (float) referenceBitrate / pessimisticBitrate;
+        scale = max(minScale, min(maxScale, scale));
+        return new BufferTargets(
+                (long) (configuredMinBufferUs * scale), (long) (configuredMaxBufferUs * scale));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.exoplayercompose.player;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * Exponentially weighted mean and variance of the bitrate estimates reported by a {@link
+ * com.google.android.exoplayer2.upstream.BandwidthMeter}.
+ *
+ * <p>Only accessed from the playback thread, so no synchronization is needed.
+ */
+public final class ThroughputStats {
+
+    /** The default weight given to a new sample. */
+    public static final double DEFAULT_SMOOTHING_FACTOR = 0.2;
+
+    private final double smoothingFactor;
+
+    private int sampleCount;
+    private double meanBitrate;
+    private double variance;
+
+    public ThroughputStats() {
+        this(DEFAULT_SMOOTHING_FACTOR);
+    }
+
+    /**
+     * @param smoothingFactor The weight given to a new sample, in (0, 1].
+     */
+    public ThroughputStats(double smoothingFactor) {
+        this.smoothingFactor = smoothingFactor;
+    }
+
+    /**
+     * Adds a bitrate sample.
+     *
+     * @param bitrate The bitrate estimate, in bits per second.
+     */
+    public void addSample(long bitrate) {
+        if (sampleCount == 0) {
+            meanBitrate = bitrate;
+            variance = 0;
+        } else {
+            double delta = bitrate - meanBitrate;
+            meanBitrate += smoothingFactor * delta;
+            variance = (1 - smoothingFactor) * (variance + smoothingFactor * delta * delta);
+        }
+        sampleCount++;
+    }
+
+    /** Clears all samples. */
+    public void reset() {
+        sampleCount = 0;
+        meanBitrate = 0;
+        variance = 0;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Returns the mean bitrate in bits per second, or {@link C#RATE_UNSET_INT} if unsampled. */
+    public long getMeanBitrate() {
+        return sampleCount == 0 ? C.RATE_UNSET_INT : (long) meanBitrate;
+    }
+
+    /** Returns the standard deviation of the bitrate in bits per second. */
+    public long getStandardDeviation() {
+        return (long) Math.sqrt(variance);
+    }
+
+    /** Returns the standard deviation divided by the mean, or 0 if unsampled. */
+    public double getCoefficientOfVariation() {
+        return meanBitrate <= 0 ? 0 : Math.sqrt(variance) / meanBitrate;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.exoplayercompose.ui
+
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.NonRestartableComposable
+import androidx.compose.runtime.SideEffect
+import androidx.compose.runtime.staticCompositionLocalOf
+
+/**
+ * Counts the recompositions of the composables that report to it with [CountRecompositions], so
+ * that tests can check which of the real player controls a state change invalidates.
+ */
+class RecompositionCounter {
+    private val counts = mutableMapOf<String, Int>()
+
+    /** Returns how many times [name] was composed since the last [reset]. */
+    operator fun get(name : String) : Int = counts[name] ?: 0
+
+    fun reset() {
+        counts.clear()
+    }
+
+    internal fun increment(name : String) {
+        counts[name] = get(name) + 1
+    }
+}
+
+/** The [RecompositionCounter] of the composition, or null (the default) to count nothing. */
+val LocalRecompositionCounter = staticCompositionLocalOf<RecompositionCounter?> { null }
+
+/**
+ * Reports a composition of the calling composable as [name] to the [LocalRecompositionCounter].
+ * It is neither restartable nor skippable, so it runs each time its caller is composed.
+ */
+@Composable
+@NonRestartableComposable
+fun CountRecompositions(name : String) {
+    val counter = LocalRecompositionCounter.current ?: return
+    SideEffect { counter.increment(name) }
+}
@@ -0,0 +1,121 @@
+package com.example.exoplayercompose.util;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts bytes served from the cache (hits) and from the network (misses) for one media source.
+ *
+ * <p>Register an instance as the {@link CacheDataSource.EventListener} of a {@link
+ * CacheDataSource.Factory} and as the {@link TransferListener} of its upstream factory. Loads run
+ * on several loader threads, so the counters are atomic and can be read from any thread.
+ */
+public final class CacheStats implements CacheDataSource.EventListener, TransferListener {
+
+    /** The counters of a {@link CacheStats} at one point in time. */
+    public static final class Snapshot {
+
+        public final long hitBytes;
+        public final long missBytes;
+        public final int cacheIgnoredCount;
+
+        public Snapshot(long hitBytes, long missBytes, int cacheIgnoredCount) {
+            this.hitBytes = hitBytes;
+            this.missBytes = missBytes;
+            this.cacheIgnoredCount = cacheIgnoredCount;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{hitBytes=" + hitBytes + ", missBytes=" + missBytes
+                    + ", cacheIgnored=" + cacheIgnoredCount + "}";
+        }
+    }
+
+    private final AtomicLong hitBytes;
+    private final AtomicLong missBytes;
+    private final AtomicInteger cacheIgnoredCount;
+
+    public CacheStats() {
+        hitBytes = new AtomicLong();
+        missBytes = new AtomicLong();
+        cacheIgnoredCount = new AtomicInteger();
+    }
+
+    /** Returns the number of bytes read from the cache. */
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    /** Returns the number of bytes read from the network. */
+    public long getMissBytes() {
+        return missBytes.get();
+    }
+
+    /** Returns the number of requests that bypassed the cache. */
+    public int getCacheIgnoredCount() {
+        return cacheIgnoredCount.get();
+    }
+
+    /**
+     * Returns the current counters. The counters are read one by one, so loads running meanwhile
+     * may be counted in some of them only.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(getHitBytes(), getMissBytes(), getCacheIgnoredCount());
+    }
+
+    /** Returns the fraction of bytes served from the cache, or 0 if nothing has been read. */
+    public float getHitRatio() {
+        long hits = hitBytes.get();
+        long total = hits + missBytes.get();
+        return total == 0 ? 0f : (float) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    // CacheDataSource.EventListener implementation.
+
+    @Override
+    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+        hitBytes.addAndGet(cachedBytesRead);
+    }
+
+    @Override
+    public void onCacheIgnored(@CacheDataSource.CacheIgnoredReason int reason) {
+        cacheIgnoredCount.incrementAndGet();
+    }
+
+    // TransferListener implementation.
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onBytesTransferred(
+            DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        if (isNetwork) {
+            missBytes.addAndGet(bytesTransferred);
+        }
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        // Do nothing.
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.exoplayercompose.util;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Evicts spans using the Greedy-Dual-Size policy, which weighs both size and recency.
+ *
+ * <p>Each span gets a priority of {@code inflation + 1 / length} when it is added or touched, and
+ * the span with the lowest priority is evicted first. Evicting a span raises the inflation to its
+ * priority (other removals, such as touches, don't), so spans that haven't been touched for a
+ * while age out. Large spans fall behind small ones touched at the same time, so one large
+ * progressive file doesn't push out many small segments.
+ */
+public final class GreedyDualSizeCacheEvictor implements CacheEvictor {
+
+    private final long maxBytes;
+    private final TreeSet<CacheSpan> spans;
+    private final Map<CacheSpan, Double> priorities;
+
+    private long currentSize;
+    private double inflation;
+
+    /**
+     * @param maxBytes The maximum size of the cache, in bytes.
+     */
+    public GreedyDualSizeCacheEvictor(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.priorities = new HashMap<>();
+        this.spans = new TreeSet<>(this::compare);
+    }
+
+    @Override
+    public boolean requiresCacheSpanTouches() {
+        return true;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+        // Do nothing.
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long length) {
+        if (length != C.LENGTH_UNSET) {
+            evictCache(cache, length);
+        }
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+        priorities.put(span, inflation + 1d / Math.max(1, span.length));
+        spans.add(span);
+        currentSize += span.length;
+        evictCache(cache, 0);
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+        // Spans also leave on touches and external removals, which must not age the others.
+        spans.remove(span);
+        priorities.remove(span);
+        currentSize -= span.length;
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+        onSpanRemoved(cache, oldSpan);
+        onSpanAdded(cache, newSpan);
+    }
+
+    private void evictCache(Cache cache, long requiredSpace) {
+        while (currentSize + requiredSpace > maxBytes && !spans.isEmpty()) {
+            CacheSpan span = spans.first();
+            inflation = Math.max(inflation, priorities.get(span));
+            cache.removeSpan(span);
+        }
+    }
+
+    private int compare(CacheSpan lhs, CacheSpan rhs) {
+        int result = Double.compare(priorities.get(lhs), priorities.get(rhs));
+        if (result != 0) {
+            return result;
+        }
+        result = Long.compare(lhs.lastTouchTimestamp, rhs.lastTouchTimestamp);
+        return result != 0 ? result : lhs.compareTo(rhs);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.exoplayercompose.util;
+
+import android.net.Uri;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSource;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The process-wide HTTP stack. Content, manifests, ad media and prefetches all go through one
+ * {@link OkHttpClient}, so they share its connection pool and HTTP/2 connections.
+ *
+ * <p>Parallel range requests use a variant of the client limited to HTTP/1.1 instead: over HTTP/2
+ * they would be multiplexed onto a single connection and share its congestion window, which is the
+ * limit they are meant to get around.
+ */
+public final class HttpStack {
+
+    /** The maximum number of idle connections kept in the pool. */
+    public static final int MAX_IDLE_CONNECTIONS = 8;
+    /** How long idle connections are kept alive, in minutes. */
+    public static final int KEEP_ALIVE_DURATION_MINUTES = 5;
+    /**
+     * The maximum number of concurrent requests per host. It allows parallel range requests,
+     * prefetching and segment loads to the same CDN at once. Only HTTP/1.1 requests need a
+     * connection each; HTTP/2 requests to a host share one.
+     */
+    public static final int MAX_REQUESTS_PER_HOST = 12;
+    /** The connect and read timeout, in milliseconds, matching ExoPlayer's HTTP defaults. */
+    public static final int TIMEOUT_MS = 8000;
+
+    private static final String TAG = "HttpStack";
+
+    @Nullable private static OkHttpClient okHttpClient;
+    @Nullable private static OkHttpDataSource.Factory dataSourceFactory;
+    @Nullable private static OkHttpClient http1OkHttpClient;
+    @Nullable private static OkHttpDataSource.Factory http1DataSourceFactory;
+
+    private HttpStack() {}
+
+    public static synchronized OkHttpClient getOkHttpClient() {
+        if (okHttpClient == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+            okHttpClient =
+                    new OkHttpClient.Builder()
+                            .connectionPool(
+                                    new ConnectionPool(
+                                            MAX_IDLE_CONNECTIONS,
+                                            KEEP_ALIVE_DURATION_MINUTES,
+                                            TimeUnit.MINUTES))
+                            .dispatcher(dispatcher)
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .readTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .build();
+        }
+        return okHttpClient;
+    }
+
+    /**
+     * Returns a variant of the shared client that only speaks HTTP/1.1, so that each concurrent
+     * request to a host gets its own connection. It shares the connection pool and dispatcher of
+     * {@link #getOkHttpClient()}.
+     */
+    public static synchronized OkHttpClient getHttp1OkHttpClient() {
+        if (http1OkHttpClient == null) {
+            http1OkHttpClient =
+                    getOkHttpClient()
+                            .newBuilder()
+                            .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                            .build();
+        }
+        return http1OkHttpClient;
+    }
+
+    /** Returns the {@link OkHttpDataSource.Factory} backed by {@link #getHttp1OkHttpClient()}. */
+    public static synchronized OkHttpDataSource.Factory getHttp1DataSourceFactory() {
+        if (http1DataSourceFactory == null) {
+            http1DataSourceFactory = new OkHttpDataSource.Factory(getHttp1OkHttpClient());
+        }
+        return http1DataSourceFactory;
+    }
+
+    /** Returns the {@link OkHttpDataSource.Factory} backed by the shared client. */
+    public static synchronized OkHttpDataSource.Factory getDataSourceFactory() {
+        if (dataSourceFactory == null) {
+            dataSourceFactory = new OkHttpDataSource.Factory(getOkHttpClient());
+        }
+        return dataSourceFactory;
+    }
+
+    /**
+     * Opens connections to the hosts of the given URLs ahead of time, so that the first real
+     * request to each host skips DNS, TCP and TLS setup. Runs asynchronously. Each host is warmed
+     * once per call, with a HEAD request whose connection is then kept in the pool.
+     *
+     * @param urls The URLs whose hosts should be warmed. Null entries are ignored.
+     */
+    public static void preconnect(@Nullable String... urls) {
+        OkHttpClient client = getOkHttpClient();
+        Set<String> origins = new HashSet<>();
+        for (String url : urls) {
+            if (url == null) {
+                continue;
+            }
+            Uri uri = Uri.parse(url);
+            String scheme = uri.getScheme();
+            if (!("http".equals(scheme) || "https".equals(scheme)) || uri.getHost() == null) {
+                continue;
+            }
+            String origin = scheme + "://" + uri.getEncodedAuthority() + "/";
+            if (!origins.add(origin)) {
+                continue;
+            }
+            client.newCall(new Request.Builder().url(origin).head().build())
+                    .enqueue(
+                            new Callback() {
+                                @Override
+                                public void onFailure(Call call, IOException e) {
+                                    Log.w(TAG, "Preconnect failed: " + origin, e);
+                                }
+
+                                @Override
+                                public void onResponse(Call call, Response response) {
+                                    response.close();
+                                }
+                            });
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.exoplayercompose.util;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.util.AtomicFile;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A two-tier store of manifests: a small in-memory LRU in front of a bounded directory on disk.
+ * Entries carry the validators and freshness needed for conditional revalidation by {@link
+ * ManifestDataSource}.
+ *
+ * <p>Thread-safe. Disk access happens on the calling thread, which is a loader thread.
+ */
+public final class ManifestCache {
+
+    /** A cached manifest. */
+    public static final class Entry {
+
+        public final byte[] data;
+        /**
+         * The URI the manifest was served from, after redirects. Relative URIs in the manifest
+         * resolve against it.
+         */
+        public final Uri uri;
+        @Nullable public final String etag;
+        @Nullable public final String lastModified;
+        /** The wall-clock time the entry was last fetched or revalidated. */
+        public final long validatedAtMs;
+        /** How long the entry stays fresh after {@link #validatedAtMs}. */
+        public final long maxAgeMs;
+        /** How long the last full fetch of the manifest took. */
+        public final long fetchDurationMs;
+
+        public Entry(
+                byte[] data,
+                Uri uri,
+                @Nullable String etag,
+                @Nullable String lastModified,
+                long validatedAtMs,
+                long maxAgeMs,
+                long fetchDurationMs) {
+            this.data = data;
+            this.uri = uri;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedAtMs = validatedAtMs;
+            this.maxAgeMs = maxAgeMs;
+            this.fetchDurationMs = fetchDurationMs;
+        }
+
+        public boolean isFresh(long nowMs) {
+            return nowMs >= validatedAtMs && nowMs - validatedAtMs < maxAgeMs;
+        }
+
+        public boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+
+        /** Returns a copy of this entry revalidated at {@code nowMs}. */
+        public Entry revalidated(long nowMs, long maxAgeMs) {
+            return new Entry(data, uri, etag, lastModified, nowMs, maxAgeMs, fetchDurationMs);
+        }
+    }
+
+    /** The maximum total size of the in-memory tier, in bytes. */
+    public static final int MAX_MEMORY_BYTES = 1024 * 1024;
+    /** The maximum number of entries kept on disk. */
+    public static final int MAX_DISK_ENTRIES = 64;
+
+    private static final String TAG = "ManifestCache";
+    private static final String DIRECTORY_NAME = "manifests";
+    private static final int FILE_VERSION = 3;
+
+    @Nullable private static ManifestCache instance;
+
+    private final File directory;
+    private final LruCache<String, Entry> memoryCache;
+
+    /** Returns the process-wide instance. */
+    public static synchronized ManifestCache getInstance(Context context) {
+        if (instance == null) {
+            instance =
+                    new ManifestCache(
+                            new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * @param directory The directory of the disk tier. Created if needed.
+     */
+    public ManifestCache(File directory) {
+        this.directory = directory;
+        memoryCache =
+                new LruCache<String, Entry>(MAX_MEMORY_BYTES) {
+                    @Override
+                    protected int sizeOf(String key, Entry entry) {
+                        return entry.data.length;
+                    }
+                };
+    }
+
+    /** Returns the entry for {@code key} from memory or disk, or null if there is none. */
+    @Nullable
+    public Entry get(String key) {
+        @Nullable Entry entry = memoryCache.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        entry = readFromDisk(key);
+        if (entry != null) {
+            memoryCache.put(key, entry);
+        }
+        return entry;
+    }
+
+    /** Stores {@code entry} in both tiers. */
+    public void put(String key, Entry entry) {
+        memoryCache.put(key, entry);
+        writeToDisk(key, entry);
+    }
+
+    /** Removes the entry for {@code key} from both tiers. */
+    public void remove(String key) {
+        memoryCache.remove(key);
+        new AtomicFile(getFile(key)).delete();
+    }
+
+    @Nullable
+    private synchronized Entry readFromDisk(String key) {
+        AtomicFile file = new AtomicFile(getFile(key));
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream inputStream = file.openRead()) {
+            DataInputStream input = new DataInputStream(inputStream);
+            if (input.readInt() != FILE_VERSION || !key.equals(input.readUTF())) {
+                return null;
+            }
+            Uri uri = Uri.parse(input.readUTF());
+            String etag = input.readBoolean() ? input.readUTF() : null;
+            String lastModified = input.readBoolean() ? input.readUTF() : null;
+            long validatedAtMs = input.readLong();
+            long maxAgeMs = input.readLong();
+            long fetchDurationMs = input.readLong();
+            byte[] data = new byte[input.readInt()];
+            input.readFully(data);
+            return new Entry(
+                    data, uri, etag, lastModified, validatedAtMs, maxAgeMs, fetchDurationMs);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable manifest entry", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private synchronized void writeToDisk(String key, Entry entry) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        AtomicFile file = new AtomicFile(getFile(key));
+        try {
+            OutputStream outputStream = file.startWrite();
+            DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(FILE_VERSION);
+            output.writeUTF(key);
+            output.writeUTF(entry.uri.toString());
+            writeNullableString(output, entry.etag);
+            writeNullableString(output, entry.lastModified);
+            output.writeLong(entry.validatedAtMs);
+            output.writeLong(entry.maxAgeMs);
+            output.writeLong(entry.fetchDurationMs);
+            output.writeInt(entry.data.length);
+            output.write(entry.data);
+            output.flush();
+            file.endWrite(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write manifest entry", e);
+            return;
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_DISK_ENTRIES) {
+            return;
+        }
+        Arrays.sort(files, (lhs, rhs) -> Long.compare(lhs.lastModified(), rhs.lastModified()));
+        for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(directory, hash(key));
+    }
+
+    private static void writeNullableString(DataOutputStream output, @Nullable String value)
+            throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest =
+                    MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.exoplayercompose.util;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DataSource} for HLS, DASH and SmoothStreaming manifests that serves them from a {@link
+ * ManifestCache}.
+ *
+ * <p>A fresh entry (within its {@code Cache-Control: max-age}, or {@link #DEFAULT_MAX_AGE_MS}
+ * without one) is served without touching the network. A stale entry is revalidated with {@code
+ * If-None-Match} / {@code If-Modified-Since}, and a {@code 304} serves the cached bytes. Live
+ * manifests (HLS media playlists without {@code #EXT-X-ENDLIST}, dynamic DASH manifests and live
+ * SmoothStreaming manifests) are never stored, so every refresh goes to the network. HLS
+ * multivariant playlists are cached even for live streams, since they don't change.
+ *
+ * <p>Only bodies recognized as manifests are stored. {@code DashMediaSource} also loads the time
+ * values of {@code UTCTiming} elements through this source, and serving those from the cache would
+ * sync the live clock to a stale time, so they and any other responses are passed on unstored.
+ *
+ * <p>{@link #getUri()} returns the URI the manifest was fetched from after redirects, also when it
+ * is served from the cache, so relative segment URIs resolve as they would without the cache.
+ *
+ * <p>Only plain GET requests for whole HTTP(S) resources are cached. Anything else is passed to
+ * the upstream source.
+ */
+public final class ManifestDataSource implements DataSource {
+
+    /** {@link DataSource.Factory} for {@link ManifestDataSource} instances. */
+    public static final class Factory implements DataSource.Factory {
+
+        private final ManifestCache manifestCache;
+        private final DataSource.Factory upstreamFactory;
+        private final AtomicLong timeSavedMs;
+        private final AtomicInteger hitCount;
+        private final AtomicInteger revalidatedCount;
+        private final AtomicInteger missCount;
+
+        /**
+         * @param manifestCache The {@link ManifestCache} to serve from.
+         * @param upstreamFactory The factory for the sources that fetch manifests. It should not
+         *     read through a media cache, since live manifests must always be fetched.
+         */
+        public Factory(ManifestCache manifestCache, DataSource.Factory upstreamFactory) {
+            this.manifestCache = manifestCache;
+            this.upstreamFactory = upstreamFactory;
+            timeSavedMs = new AtomicLong();
+            hitCount = new AtomicInteger();
+            revalidatedCount = new AtomicInteger();
+            missCount = new AtomicInteger();
+        }
+
+        @Override
+        public ManifestDataSource createDataSource() {
+            return new ManifestDataSource(manifestCache, upstreamFactory.createDataSource(), this);
+        }
+
+        /**
+         * Returns the estimated time saved by the cache for the sources of this factory, in
+         * milliseconds: the duration of the original fetch for each fresh hit, and the difference
+         * with the revalidation for each {@code 304}.
+         */
+        public long getTimeSavedMs() {
+            return timeSavedMs.get();
+        }
+
+        /** Returns the number of manifests served from the cache without a request. */
+        public int getHitCount() {
+            return hitCount.get();
+        }
+
+        /** Returns the number of manifests served from the cache after a {@code 304}. */
+        public int getRevalidatedCount() {
+            return revalidatedCount.get();
+        }
+
+        /** Returns the number of cacheable manifests that were fetched in full. */
+        public int getMissCount() {
+            return missCount.get();
+        }
+
+        /** Returns the current counters of the sources of this factory. */
+        public Stats snapshot() {
+            return new Stats(getHitCount(), getRevalidatedCount(), getMissCount(), getTimeSavedMs());
+        }
+
+        @Override
+        public String toString() {
+            return snapshot().toString();
+        }
+    }
+
+    /** The counters of a {@link Factory} at one point in time. */
+    public static final class Stats {
+
+        public final int hitCount;
+        public final int revalidatedCount;
+        public final int missCount;
+        public final long timeSavedMs;
+
+        public Stats(int hitCount, int revalidatedCount, int missCount, long timeSavedMs) {
+            this.hitCount = hitCount;
+            this.revalidatedCount = revalidatedCount;
+            this.missCount = missCount;
+            this.timeSavedMs = timeSavedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "ManifestStats{hits=" + hitCount + ", revalidated=" + revalidatedCount
+                    + ", misses=" + missCount + ", timeSavedMs=" + timeSavedMs + "}";
+        }
+    }
+
+    /** How long a manifest without a {@code max-age} stays fresh, in milliseconds. */
+    public static final long DEFAULT_MAX_AGE_MS = 10 * 60 * 1000;
+
+    // Marks a response that must not be stored.
+    private static final long NO_STORE = -1;
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final ManifestCache manifestCache;
+    private final DataSource upstream;
+    private final Factory factory;
+
+    @Nullable private Uri uri;
+    @Nullable private byte[] data;
+    private int readPosition;
+    private boolean isPassthrough;
+    private Map<String, List<String>> responseHeaders;
+
+    private ManifestDataSource(ManifestCache manifestCache, DataSource upstream, Factory factory) {
+        this.manifestCache = manifestCache;
+        this.upstream = upstream;
+        this.factory = factory;
+        responseHeaders = Collections.emptyMap();
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+        Assertions.checkNotNull(transferListener);
+        upstream.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri;
+        if (!isCacheable(dataSpec)) {
+            isPassthrough = true;
+            return upstream.open(dataSpec);
+        }
+        String key = dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+        long nowMs = System.currentTimeMillis();
+        @Nullable ManifestCache.Entry entry = manifestCache.get(key);
+        if (entry != null && entry.isFresh(nowMs)) {
+            factory.hitCount.incrementAndGet();
+            factory.timeSavedMs.addAndGet(entry.fetchDurationMs);
+            uri = entry.uri;
+            return serve(entry.data);
+        }
+        DataSpec request = dataSpec;
+        if (entry != null && entry.hasValidator()) {
+            Map<String, String> conditionalHeaders = new HashMap<>();
+            if (entry.etag != null) {
+                conditionalHeaders.put("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                conditionalHeaders.put("If-Modified-Since", entry.lastModified);
+            }
+            request = dataSpec.withAdditionalHeaders(conditionalHeaders);
+        }
+        long startTimeMs = SystemClock.elapsedRealtime();
+        byte[] body;
+        try {
+            upstream.open(request);
+            // Parsers resolve relative URIs against getUri(), so it must be the final location.
+            @Nullable Uri responseUri = upstream.getUri();
+            if (responseUri != null) {
+                uri = responseUri;
+            }
+            body = readToEnd(upstream);
+            responseHeaders = upstream.getResponseHeaders();
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            if (e.responseCode != 304 || entry == null) {
+                throw e;
+            }
+            long revalidationDurationMs = SystemClock.elapsedRealtime() - startTimeMs;
+            long maxAgeMs = getMaxAgeMs(e.headerFields);
+            if (maxAgeMs != NO_STORE) {
+                manifestCache.put(key, entry.revalidated(nowMs, maxAgeMs));
+            }
+            factory.revalidatedCount.incrementAndGet();
+            factory.timeSavedMs.addAndGet(
+                    Math.max(0, entry.fetchDurationMs - revalidationDurationMs));
+            uri = entry.uri;
+            return serve(entry.data);
+        } finally {
+            upstream.close();
+        }
+        long fetchDurationMs = SystemClock.elapsedRealtime() - startTimeMs;
+        long maxAgeMs = getMaxAgeMs(responseHeaders);
+        String manifest = stripLeadingWhitespace(new String(body, StandardCharsets.UTF_8));
+        if (maxAgeMs == NO_STORE || !isManifest(manifest) || isLive(manifest)) {
+            manifestCache.remove(key);
+        } else {
+            manifestCache.put(
+                    key,
+                    new ManifestCache.Entry(
+                            body,
+                            Assertions.checkNotNull(uri),
+                            getHeader(responseHeaders, "ETag"),
+                            getHeader(responseHeaders, "Last-Modified"),
+                            nowMs,
+                            maxAgeMs,
+                            fetchDurationMs));
+            factory.missCount.incrementAndGet();
+        }
+        return serve(body);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (isPassthrough) {
+            return upstream.read(buffer, offset, length);
+        }
+        byte[] data = Assertions.checkNotNull(this.data);
+        if (length == 0) {
+            return 0;
+        }
+        if (readPosition == data.length) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int bytesRead = Math.min(length, data.length - readPosition);
+        System.arraycopy(data, readPosition, buffer, offset, bytesRead);
+        readPosition += bytesRead;
+        return bytesRead;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return isPassthrough ? upstream.getUri() : uri;
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return isPassthrough ? upstream.getResponseHeaders() : responseHeaders;
+    }
+
+    @Override
+    public void close() throws IOException {
+        uri = null;
+        data = null;
+        responseHeaders = Collections.emptyMap();
+        if (isPassthrough) {
+            isPassthrough = false;
+            upstream.close();
+        }
+    }
+
+    private long serve(byte[] data) {
+        this.data = data;
+        readPosition = 0;
+        return data.length;
+    }
+
+    private static boolean isCacheable(DataSpec dataSpec) {
+        String scheme = dataSpec.uri.getScheme();
+        return ("http".equals(scheme) || "https".equals(scheme))
+                && dataSpec.httpMethod == DataSpec.HTTP_METHOD_GET
+                && dataSpec.position == 0
+                && dataSpec.length == C.LENGTH_UNSET;
+    }
+
+    /**
+     * Returns whether the body is an HLS playlist, a DASH manifest or a SmoothStreaming manifest.
+     * Only those are stored, and only they get {@link #DEFAULT_MAX_AGE_MS} without a {@code
+     * max-age}.
+     */
+    private static boolean isManifest(String body) {
+        return body.startsWith("#EXTM3U")
+                || body.contains("<MPD")
+                || body.contains("<SmoothStreamingMedia");
+    }
+
+    /** Returns whether the manifest describes a live presentation, which must not be cached. */
+    private static boolean isLive(String manifest) {
+        if (manifest.startsWith("#EXTM3U")) {
+            // Media playlists list segments; live ones have no end tag.
+            return manifest.contains("#EXTINF") && !manifest.contains("#EXT-X-ENDLIST");
+        }
+        return manifest.contains("type=\"dynamic\"")
+                || manifest.toLowerCase(Locale.US).contains("islive=\"true\"");
+    }
+
+    /** Returns {@code body} without a leading byte order mark and whitespace. */
+    private static String stripLeadingWhitespace(String body) {
+        int start = 0;
+        while (start < body.length()
+                && (body.charAt(start) == '\uFEFF' || Character.isWhitespace(body.charAt(start)))) {
+            start++;
+        }
+        return body.substring(start);
+    }
+
+    /** Returns the freshness lifetime from {@code Cache-Control}, or {@link #NO_STORE}. */
+    private static long getMaxAgeMs(Map<String, List<String>> headers) {
+        @Nullable String cacheControl = getHeader(headers, "Cache-Control");
+        if (cacheControl == null) {
+            return DEFAULT_MAX_AGE_MS;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+            if (directive.equals("no-store")) {
+                return NO_STORE;
+            } else if (directive.equals("no-cache")) {
+                return 0;
+            } else if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                } catch (NumberFormatException e) {
+                    // Ignore the malformed directive.
+                }
+            }
+        }
+        return DEFAULT_MAX_AGE_MS;
+    }
+
+    @Nullable
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readToEnd(DataSource dataSource) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            output.write(buffer, 0, bytesRead);
+        }
+        return output.toByteArray();
+    }
+}
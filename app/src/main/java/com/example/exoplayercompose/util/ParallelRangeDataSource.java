@@ -0,0 +1,404 @@
+package com.example.exoplayercompose.util;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link DataSource} that reads a progressive resource through several parallel byte-range
+ * requests, so that a high-latency link isn't limited to the throughput of a single connection.
+ *
+ * <p>The read is split into chunks of {@link Factory#setChunkSize(int) chunkSize} bytes. The first
+ * chunk is streamed directly, while up to {@link Factory#setParallelism(int) parallelism} - 1
+ * following chunks are downloaded ahead into buffers and handed to the reader in order. Memory use
+ * is therefore bounded by {@code parallelism * chunkSize} per open source. The speed-up comes from
+ * using several TCP connections, so the upstream must not multiplex the ranges over HTTP/2.
+ *
+ * <p>The resource length is taken from the {@code Content-Range} header of the first response or,
+ * when the upstream is a {@link CacheDataSource} that served it from the cache, from the content
+ * length stored in the cache's {@link ContentMetadata}. If neither is known, because the server
+ * ignored {@code Range}, the request is reopened as a single stream. Requests no longer than one
+ * chunk, and resources that end within the first chunk, are read as a single stream without
+ * reopening.
+ */
+public final class ParallelRangeDataSource implements DataSource {
+
+    /** {@link DataSource.Factory} for {@link ParallelRangeDataSource} instances. */
+    public static final class Factory implements DataSource.Factory {
+
+        private final DataSource.Factory upstreamFactory;
+        private int chunkSize;
+        private int parallelism;
+        @Nullable private ExecutorService executorService;
+
+        /**
+         * @param upstreamFactory The factory for the sources that serve each range, usually HTTP
+         *     sources or a cache in front of them. The HTTP sources should use HTTP/1.1, such as
+         *     those of {@link HttpStack#getHttp1DataSourceFactory()}: over HTTP/2 the ranges would
+         *     share a single connection.
+         */
+        public Factory(DataSource.Factory upstreamFactory) {
+            this.upstreamFactory = upstreamFactory;
+            chunkSize = DEFAULT_CHUNK_SIZE;
+            parallelism = DEFAULT_PARALLELISM;
+        }
+
+        /**
+         * Sets the size of each range request, in bytes.
+         *
+         * @param chunkSize The chunk size.
+         * @return This factory, for convenience.
+         */
+        public Factory setChunkSize(int chunkSize) {
+            Assertions.checkArgument(chunkSize > 0);
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of range requests in flight for one source, including the one
+         * being read.
+         *
+         * @param parallelism The number of parallel requests.
+         * @return This factory, for convenience.
+         */
+        public Factory setParallelism(int parallelism) {
+            Assertions.checkArgument(parallelism > 0);
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the executor that downloads chunks ahead. Defaults to a process-wide pool.
+         *
+         * @param executorService The {@link ExecutorService}.
+         * @return This factory, for convenience.
+         */
+        public Factory setExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        @Override
+        public ParallelRangeDataSource createDataSource() {
+            return new ParallelRangeDataSource(
+                    upstreamFactory,
+                    chunkSize,
+                    parallelism,
+                    executorService != null ? executorService : getSharedExecutorService());
+        }
+    }
+
+    /** The default size of each range request, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+    /** The default number of parallel range requests per source. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final int SHARED_THREAD_COUNT = 8;
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    @Nullable private static ExecutorService sharedExecutorService;
+
+    private final DataSource.Factory upstreamFactory;
+    private final int chunkSize;
+    private final int parallelism;
+    private final ExecutorService executorService;
+    private final List<TransferListener> transferListeners;
+    private final ArrayDeque<Future<Chunk>> pendingChunks;
+    private final ArrayDeque<byte[]> freeBuffers;
+
+    @Nullable private DataSpec dataSpec;
+    // The source being streamed: the whole request when not parallel, else the first chunk.
+    @Nullable private DataSource streamingSource;
+    private boolean isParallel;
+    private long nextChunkPosition;
+    private long endPosition;
+    private long bytesRemaining;
+    @Nullable private Chunk currentChunk;
+    private int currentChunkOffset;
+
+    private static final class Chunk {
+
+        public final byte[] data;
+        public final int length;
+
+        public Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private ParallelRangeDataSource(
+            DataSource.Factory upstreamFactory,
+            int chunkSize,
+            int parallelism,
+            ExecutorService executorService) {
+        this.upstreamFactory = upstreamFactory;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.executorService = executorService;
+        transferListeners = new ArrayList<>();
+        pendingChunks = new ArrayDeque<>(parallelism);
+        freeBuffers = new ArrayDeque<>(parallelism);
+    }
+
+    /** Returns whether the open request is being read through parallel range requests. */
+    public boolean isParallel() {
+        return isParallel;
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+        Assertions.checkNotNull(transferListener);
+        transferListeners.add(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        if (parallelism == 1
+                || (dataSpec.length != C.LENGTH_UNSET && dataSpec.length <= chunkSize)) {
+            return openSingleStream(dataSpec);
+        }
+        DataSource firstSource = createUpstreamDataSource();
+        streamingSource = firstSource;
+        long firstChunkLength = firstSource.open(dataSpec.subrange(0, chunkSize));
+        if (firstChunkLength != C.LENGTH_UNSET && firstChunkLength < chunkSize) {
+            // The resource ends within the first chunk, which is then the whole request.
+            isParallel = false;
+            return firstChunkLength;
+        }
+        long resourceLength = getResourceLength(firstSource.getResponseHeaders());
+        if (resourceLength == C.LENGTH_UNSET) {
+            resourceLength = getCachedResourceLength(firstSource, dataSpec);
+        }
+        if (resourceLength == C.LENGTH_UNSET || firstChunkLength == C.LENGTH_UNSET) {
+            // Range was ignored, so the first response isn't limited to the first chunk.
+            streamingSource = null;
+            firstSource.close();
+            return openSingleStream(dataSpec);
+        }
+        isParallel = true;
+        endPosition =
+                dataSpec.length == C.LENGTH_UNSET
+                        ? resourceLength
+                        : Math.min(resourceLength, dataSpec.position + dataSpec.length);
+        nextChunkPosition = dataSpec.position + firstChunkLength;
+        bytesRemaining = endPosition - dataSpec.position;
+        for (int i = 1; i < parallelism; i++) {
+            maybeScheduleNextChunk();
+        }
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (!isParallel) {
+            return Assertions.checkNotNull(streamingSource).read(buffer, offset, length);
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        if (streamingSource != null) {
+            int bytesRead = streamingSource.read(buffer, offset, length);
+            if (bytesRead != C.RESULT_END_OF_INPUT) {
+                bytesRemaining -= bytesRead;
+                return bytesRead;
+            }
+            streamingSource.close();
+            streamingSource = null;
+        }
+        if (currentChunk == null || currentChunkOffset == currentChunk.length) {
+            if (currentChunk != null) {
+                freeBuffers.add(currentChunk.data);
+                currentChunk = null;
+            }
+            @Nullable Future<Chunk> nextChunk = pendingChunks.poll();
+            if (nextChunk == null) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            currentChunk = awaitChunk(nextChunk);
+            currentChunkOffset = 0;
+            maybeScheduleNextChunk();
+        }
+        int bytesRead = Math.min(length, currentChunk.length - currentChunkOffset);
+        System.arraycopy(currentChunk.data, currentChunkOffset, buffer, offset, bytesRead);
+        currentChunkOffset += bytesRead;
+        bytesRemaining -= bytesRead;
+        return bytesRead;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        if (streamingSource != null) {
+            return streamingSource.getUri();
+        }
+        return dataSpec != null ? dataSpec.uri : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return streamingSource != null
+                ? streamingSource.getResponseHeaders()
+                : Collections.emptyMap();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<Chunk> pendingChunk : pendingChunks) {
+            // Buffers of canceled chunks are dropped rather than recycled, since the worker may
+            // still be writing to them.
+            pendingChunk.cancel(/* mayInterruptIfRunning= */ true);
+        }
+        pendingChunks.clear();
+        if (currentChunk != null) {
+            freeBuffers.add(currentChunk.data);
+            currentChunk = null;
+        }
+        isParallel = false;
+        dataSpec = null;
+        DataSource streamingSource = this.streamingSource;
+        this.streamingSource = null;
+        if (streamingSource != null) {
+            streamingSource.close();
+        }
+    }
+
+    private long openSingleStream(DataSpec dataSpec) throws IOException {
+        isParallel = false;
+        streamingSource = createUpstreamDataSource();
+        return streamingSource.open(dataSpec);
+    }
+
+    private void maybeScheduleNextChunk() {
+        if (nextChunkPosition >= endPosition) {
+            return;
+        }
+        DataSpec dataSpec = Assertions.checkNotNull(this.dataSpec);
+        long chunkPosition = nextChunkPosition;
+        int chunkLength = (int) Math.min(chunkSize, endPosition - chunkPosition);
+        nextChunkPosition += chunkLength;
+        @Nullable byte[] recycled = freeBuffers.poll();
+        byte[] data = recycled != null ? recycled : new byte[chunkSize];
+        DataSpec chunkDataSpec =
+                dataSpec.subrange(chunkPosition - dataSpec.position, chunkLength);
+        pendingChunks.add(executorService.submit(() -> loadChunk(chunkDataSpec, data)));
+    }
+
+    private Chunk loadChunk(DataSpec chunkDataSpec, byte[] data) throws IOException {
+        int length = (int) chunkDataSpec.length;
+        DataSource dataSource = createUpstreamDataSource();
+        try {
+            dataSource.open(chunkDataSpec);
+            int bytesLoaded = 0;
+            while (bytesLoaded < length) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+                int bytesRead = dataSource.read(data, bytesLoaded, length - bytesLoaded);
+                if (bytesRead == C.RESULT_END_OF_INPUT) {
+                    throw new IOException(
+                            "Range ended after " + bytesLoaded + " of " + length + " bytes");
+                }
+                bytesLoaded += bytesRead;
+            }
+        } finally {
+            dataSource.close();
+        }
+        return new Chunk(data, length);
+    }
+
+    private static Chunk awaitChunk(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private DataSource createUpstreamDataSource() {
+        DataSource dataSource = upstreamFactory.createDataSource();
+        for (int i = 0; i < transferListeners.size(); i++) {
+            dataSource.addTransferListener(transferListeners.get(i));
+        }
+        return dataSource;
+    }
+
+    /**
+     * Returns the full length of the resource from a {@code Content-Range: bytes a-b/length}
+     * header, or {@link C#LENGTH_UNSET} if there is no such header or the length is unknown.
+     */
+    private static long getResourceLength(Map<String, List<String>> responseHeaders) {
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            if (!CONTENT_RANGE_HEADER.equalsIgnoreCase(header.getKey())
+                    || header.getValue().isEmpty()) {
+                continue;
+            }
+            String contentRange = header.getValue().get(0);
+            int slashIndex = contentRange.lastIndexOf('/');
+            if (slashIndex == -1) {
+                return C.LENGTH_UNSET;
+            }
+            try {
+                return Long.parseLong(contentRange.substring(slashIndex + 1).trim());
+            } catch (NumberFormatException e) {
+                // Unknown length ("*").
+                return C.LENGTH_UNSET;
+            }
+        }
+        return C.LENGTH_UNSET;
+    }
+
+    /**
+     * Returns the full length of the resource as stored in the cache, if {@code dataSource} is a
+     * {@link CacheDataSource} that knows it, or {@link C#LENGTH_UNSET} otherwise.
+     */
+    private static long getCachedResourceLength(DataSource dataSource, DataSpec dataSpec) {
+        if (!(dataSource instanceof CacheDataSource)) {
+            return C.LENGTH_UNSET;
+        }
+        CacheDataSource cacheDataSource = (CacheDataSource) dataSource;
+        Cache cache = cacheDataSource.getCache();
+        String key = cacheDataSource.getCacheKeyFactory().buildCacheKey(dataSpec);
+        return ContentMetadata.getContentLength(cache.getContentMetadata(key));
+    }
+
+    private static synchronized ExecutorService getSharedExecutorService() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService =
+                    Executors.newFixedThreadPool(
+                            SHARED_THREAD_COUNT,
+                            runnable -> new Thread(runnable, "ExoplayerCompose:RangeLoader"));
+        }
+        return sharedExecutorService;
+    }
+}
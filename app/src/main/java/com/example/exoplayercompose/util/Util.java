@@ -1,27 +1,96 @@
 package com.example.exoplayercompose.util;
 
 import android.content.Context;
+import android.os.SystemClock;
 
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.database.DatabaseProvider;
+import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.upstream.cache.Cache;
-import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 
 import java.io.File;
 
 public class Util {
 
+    /** The maximum size of the download cache, in bytes. */
+    public static final long DOWNLOAD_CACHE_MAX_BYTES = 512L * 1024 * 1024;
+
     private static Cache downloadCache;
+    private static DatabaseProvider databaseProvider;
     private static File downloadDirectory;
+    private static volatile long cacheOpenTimeMs = C.TIME_UNSET;
     private static final String DOWNLOAD_CONTENT_DIRECTORY = "exoplayercompose";
     public static synchronized Cache getDownloadCache(Context context) {
         if (downloadCache == null) {
+            long startTimeMs = SystemClock.elapsedRealtime();
             File downloadContentDirectory = new File(getDownloadDirectory(context), DOWNLOAD_CONTENT_DIRECTORY);
             downloadCache =
-                    new SimpleCache(downloadContentDirectory, new NoOpCacheEvictor()/*, getDatabaseProvider(context)*/);
+                    new SimpleCache(
+                            downloadContentDirectory,
+                            new GreedyDualSizeCacheEvictor(DOWNLOAD_CACHE_MAX_BYTES),
+                            getDatabaseProvider(context));
+            // SimpleCache loads its index on a background thread and holds its lock until done, so
+            // a synchronized call blocks until the cache is really open.
+            downloadCache.getCacheSpace();
+            cacheOpenTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
         }
         return downloadCache;
     }
 
+    /**
+     * Returns the time taken to open the download cache and load its index, in milliseconds, or
+     * {@link C#TIME_UNSET} if the cache hasn't been opened yet.
+     */
+    public static long getCacheOpenTimeMs() {
+        return cacheOpenTimeMs;
+    }
+
+    /**
+     * Returns a {@link CacheDataSource.Factory} that reads through and writes through the download
+     * cache, reporting hit and miss bytes to {@code cacheStats}.
+     */
+    public static CacheDataSource.Factory buildCacheDataSourceFactory(
+            Context context, CacheStats cacheStats) {
+        return buildCacheDataSourceFactory(context, cacheStats, HttpStack.getDataSourceFactory());
+    }
+
+    /**
+     * Returns a {@link CacheDataSource.Factory} like {@link #buildCacheDataSourceFactory(Context,
+     * CacheStats)}, that fetches misses with {@code httpDataSourceFactory}.
+     */
+    public static CacheDataSource.Factory buildCacheDataSourceFactory(
+            Context context, CacheStats cacheStats, HttpDataSource.Factory httpDataSourceFactory) {
+        DefaultDataSource.Factory upstreamFactory =
+                new DefaultDataSource.Factory(context, httpDataSourceFactory)
+                        .setTransferListener(cacheStats);
+        return new CacheDataSource.Factory()
+                .setCache(getDownloadCache(context))
+                .setUpstreamDataSourceFactory(upstreamFactory)
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)
+                .setEventListener(cacheStats);
+    }
+
+    /**
+     * Returns a {@link ManifestDataSource.Factory} that serves manifests from the {@link
+     * ManifestCache}, fetching them over the shared HTTP stack without the media cache.
+     */
+    public static ManifestDataSource.Factory buildManifestDataSourceFactory(Context context) {
+        return new ManifestDataSource.Factory(
+                ManifestCache.getInstance(context),
+                new DefaultDataSource.Factory(context, HttpStack.getDataSourceFactory()));
+    }
+
+    public static synchronized DatabaseProvider getDatabaseProvider(Context context) {
+        if (databaseProvider == null) {
+            databaseProvider = new StandaloneDatabaseProvider(context.getApplicationContext());
+        }
+        return databaseProvider;
+    }
+
     private static File getDownloadDirectory(Context context) {
         if (downloadDirectory == null) {
             downloadDirectory = context.getExternalFilesDir(null);
@@ -1,13 +1,9 @@
 package com.example.exoplayercompose.viewmodels
 
-import androidx.compose.runtime.MutableState
-import androidx.compose.runtime.State
-import androidx.compose.runtime.mutableStateOf
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.example.exoplayercompose.model.PlayerState
 import com.google.android.exoplayer2.Player
-import com.google.android.exoplayer2.Player.STATE_READY
 import com.google.android.exoplayer2.analytics.AnalyticsListener
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
@@ -18,31 +14,33 @@ class MainActivityViewModel : ViewModel() {
     fun onPlayerClicked() {
         playerControllerVisibilityJob?.cancel()
         playerControllerVisibilityJob = viewModelScope.launch {
-            var isControllerVisible = playerState.value.isControllerVisible
-            if(!isControllerVisible) {
-                playerState.value = playerState.value.copy(isControllerVisible = playerState.value.isControllerVisible.not())
+            if(!playerState.isControllerVisible) {
+                playerState.isControllerVisible = true
                 delay(5000)
-                playerState.value = playerState.value.copy(isControllerVisible = playerState.value.isControllerVisible.not())
+                playerState.isControllerVisible = false
             }else{
-                playerState.value = playerState.value.copy(isControllerVisible = playerState.value.isControllerVisible.not())
+                playerState.isControllerVisible = false
             }
         }
     }
 
-    private val playerState : MutableState<PlayerState> = mutableStateOf(PlayerState("https://www.learningcontainer.com/wp-content/uploads/2020/05/sample-mp4-file.mp4"))
-
-    val _playerState : State<PlayerState>
-        get() = playerState
+    val playerState = PlayerState(
+        "https://www.learningcontainer.com/wp-content/uploads/2020/05/sample-mp4-file.mp4",
+        upcomingUrls = listOf(
+            "https://bitdash-a.akamaihd.net/content/sintel/hls/playlist.m3u8",
+            "https://storage.googleapis.com/wvmedia/clear/h264/tears/tears.mpd"
+        )
+    )
 
     val analyticsListener = object : AnalyticsListener{
         override fun onEvents(player: Player, events: AnalyticsListener.Events) {
             super.onEvents(player, events)
-            playerState.value = playerState.value.copy(playerCurrentPosition = player.currentPosition, bufferPercentage = player.bufferedPercentage, totalDuration = player.duration)
+            playerState.updateProgress(player.currentPosition, player.bufferedPercentage, player.duration)
         }
 
         override fun onPlaybackStateChanged(eventTime: AnalyticsListener.EventTime, state: Int) {
             super.onPlaybackStateChanged(eventTime, state)
-            playerState.value = playerState.value.copy(playbackState = state)
+            playerState.playbackState = state
         }
 
         override fun onPlayWhenReadyChanged(
@@ -51,8 +49,8 @@ class MainActivityViewModel : ViewModel() {
             reason: Int
         ) {
             super.onPlayWhenReadyChanged(eventTime, playWhenReady, reason)
-            playerState.value = playerState.value.copy(playWhenReady = playWhenReady)
+            playerState.playWhenReady = playWhenReady
         }
     }
 
-}
\ No newline at end of file
+}
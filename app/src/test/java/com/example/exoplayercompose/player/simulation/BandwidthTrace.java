@@ -0,0 +1,88 @@
+package com.example.exoplayercompose.player.simulation;
+
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded bandwidth trace: a sequence of periods of constant bandwidth that repeats once it is
+ * exhausted.
+ *
+ * <p>The file format has one period per line, {@code <durationMs> <bitrateBps>}. Blank lines and
+ * lines starting with {@code #} are ignored.
+ */
+public final class BandwidthTrace {
+
+    public final String name;
+    private final long[] endTimesUs;
+    private final long[] bitrates;
+
+    private BandwidthTrace(String name, long[] durationsMs, long[] bitrates) {
+        Assertions.checkArgument(durationsMs.length > 0 && durationsMs.length == bitrates.length);
+        this.name = name;
+        this.bitrates = bitrates;
+        endTimesUs = new long[durationsMs.length];
+        long endTimeUs = 0;
+        for (int i = 0; i < durationsMs.length; i++) {
+            Assertions.checkArgument(durationsMs[i] > 0, "durations must be positive");
+            endTimeUs += durationsMs[i] * 1000;
+            endTimesUs[i] = endTimeUs;
+        }
+    }
+
+    /** Returns a trace with a constant bitrate. */
+    public static BandwidthTrace constant(String name, long bitrate) {
+        return new BandwidthTrace(name, new long[] {1000}, new long[] {bitrate});
+    }
+
+    /**
+     * Returns a trace made of the given periods.
+     *
+     * @param durationsMs The duration of each period, in milliseconds.
+     * @param bitrates The bandwidth during each period, in bits per second.
+     */
+    public static BandwidthTrace of(String name, long[] durationsMs, long[] bitrates) {
+        return new BandwidthTrace(name, durationsMs.clone(), bitrates.clone());
+    }
+
+    /** Reads a trace file. */
+    public static BandwidthTrace fromFile(File file) throws IOException {
+        List<long[]> periods = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2) {
+                    throw new IOException("Malformed trace line: " + line);
+                }
+                periods.add(new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+            }
+        }
+        long[] durationsMs = new long[periods.size()];
+        long[] bitrates = new long[periods.size()];
+        for (int i = 0; i < periods.size(); i++) {
+            durationsMs[i] = periods.get(i)[0];
+            bitrates[i] = periods.get(i)[1];
+        }
+        return new BandwidthTrace(file.getName(), durationsMs, bitrates);
+    }
+
+    /** Returns the bandwidth at the given time, in bits per second. */
+    public long getBitrate(long timeUs) {
+        long cycleTimeUs = timeUs % endTimesUs[endTimesUs.length - 1];
+        for (int i = 0; i < endTimesUs.length; i++) {
+            if (cycleTimeUs < endTimesUs[i]) {
+                return bitrates[i];
+            }
+        }
+        return bitrates[bitrates.length - 1];
+    }
+}
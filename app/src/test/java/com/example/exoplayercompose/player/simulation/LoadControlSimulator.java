@@ -0,0 +1,289 @@
+package com.example.exoplayercompose.player.simulation;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.example.exoplayercompose.player.ConservativeBufferPolicy;
+import com.example.exoplayercompose.player.CustomLoadControl;
+import com.example.exoplayercompose.player.DefaultBufferAllocator;
+import com.example.exoplayercompose.player.ThroughputScaledBufferPolicy;
+import com.google.android.exoplayer2.BaseRenderer;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a {@link MediaModel} over a {@link BandwidthTrace} in simulated time, asking a real {@link
+ * CustomLoadControl} when to load and when to start playback, and measures the resulting startup
+ * delay, rebuffering, peak memory and idle network time.
+ *
+ * <p>The media is exposed to the load control as a single selected video track with the bitrate of
+ * the {@link MediaModel}. The simulation advances in {@link #TICK_US} steps. Segments are loaded one at a time, and the
+ * allocations backing a segment are released once it has been played out.
+ */
+public final class LoadControlSimulator {
+
+    /** The simulated time step, matching the player's 10ms work loop. */
+    public static final long TICK_US = 10_000;
+
+    /** Simulations stop after this much simulated time even if playback did not end. */
+    private static final long MAX_SIMULATED_TIME_FACTOR = 20;
+
+    private static final int STATE_STARTING = 0;
+    private static final int STATE_PLAYING = 1;
+    private static final int STATE_REBUFFERING = 2;
+    private static final int STATE_ENDED = 3;
+
+    private LoadControlSimulator() {}
+
+    /** Runs one simulation. */
+    public static SimulationResult run(
+            SimulationParameters parameters, BandwidthTrace trace, MediaModel media) {
+        SimulatedBandwidthMeter bandwidthMeter = new SimulatedBandwidthMeter();
+        CustomLoadControl.Builder builder =
+                new CustomLoadControl.Builder()
+                        .setAllocator(
+                                new DefaultBufferAllocator(
+                                        new DefaultAllocator(
+                                                /* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE)))
+                        .setBufferDurationsMs(
+                                parameters.minBufferMs,
+                                parameters.maxBufferMs,
+                                parameters.bufferForPlaybackMs,
+                                parameters.bufferForPlaybackAfterRebufferMs)
+                        .setTargetBufferBytes(parameters.targetBufferBytes)
+                        .setBitrateBasedTargetBufferBytes(
+                                parameters.bitrateBasedTargetBufferBytes,
+                                CustomLoadControl.DEFAULT_BITRATE_HEADROOM_FACTOR)
+                        .setBufferPolicy(parameters.createBufferPolicy())
+                        .setBandwidthMeter(bandwidthMeter);
+        if (parameters.predictiveStart) {
+            builder.setPredictiveStart(
+                    CustomLoadControl.DEFAULT_PREDICTIVE_START_SAFETY_FACTOR,
+                    CustomLoadControl.DEFAULT_PREDICTIVE_START_MIN_BUFFER_MS,
+                    CustomLoadControl.DEFAULT_PREDICTIVE_START_HORIZON_MS);
+        }
+        CustomLoadControl loadControl = builder.build();
+        loadControl.onPrepared();
+        // Select the media's single video format, as the player would once the source is prepared,
+        // so the target buffer size and the predictive start see its bitrate.
+        TrackGroup trackGroup = new TrackGroup(media.createFormat());
+        loadControl.onTracksSelected(
+                new Renderer[] {new SimulatedVideoRenderer()},
+                new TrackGroupArray(trackGroup),
+                new ExoTrackSelection[] {new FixedTrackSelection(trackGroup, /* track= */ 0)});
+        Allocator allocator = loadControl.getAllocator();
+        int allocationLength = allocator.getIndividualAllocationLength();
+
+        int segmentCount = media.getSegmentCount();
+        long mediaDurationUs = media.durationMs * 1000;
+        long maxSimulatedTimeUs = mediaDurationUs * MAX_SIMULATED_TIME_FACTOR;
+        ArrayDeque<BufferedSegment> bufferedSegments = new ArrayDeque<>();
+
+        int state = STATE_STARTING;
+        long nowUs = 0;
+        long positionUs = 0;
+        long loadedUs = 0;
+        int nextSegmentIndex = 0;
+
+        boolean loading = false;
+        long loadStartUs = 0;
+        long remainingLatencyUs = 0;
+        long segmentBytes = 0;
+        long transferredBytes = 0;
+        List<Allocation> segmentAllocations = new ArrayList<>();
+
+        long startupDelayUs = C.TIME_UNSET;
+        int rebufferCount = 0;
+        long rebufferTimeUs = 0;
+        long playingTimeUs = 0;
+        long idleNetworkUs = 0;
+        long peakBytesAllocated = 0;
+
+        while (state != STATE_ENDED && nowUs < maxSimulatedTimeUs) {
+            long bufferedDurationUs = loadedUs - positionUs;
+
+            // Loading.
+            if (!loading
+                    && nextSegmentIndex < segmentCount
+                    && loadControl.shouldContinueLoading(positionUs, bufferedDurationUs, 1f)) {
+                loading = true;
+                loadStartUs = nowUs;
+                remainingLatencyUs = media.requestLatencyMs * 1000;
+                segmentBytes = media.getSegmentBytes(nextSegmentIndex);
+                transferredBytes = 0;
+                segmentAllocations = new ArrayList<>();
+            }
+            if (loading) {
+                if (remainingLatencyUs > 0) {
+                    remainingLatencyUs -= TICK_US;
+                } else {
+                    long tickBytes = trace.getBitrate(nowUs) * TICK_US / 8_000_000;
+                    transferredBytes = min(segmentBytes, transferredBytes + tickBytes);
+                    while ((long) segmentAllocations.size() * allocationLength < transferredBytes) {
+                        segmentAllocations.add(allocator.allocate());
+                    }
+                }
+                if (transferredBytes >= segmentBytes) {
+                    bandwidthMeter.onTransfer(segmentBytes, nowUs + TICK_US - loadStartUs);
+                    loadedUs += media.getSegmentDurationUs(nextSegmentIndex);
+                    bufferedSegments.add(
+                            new BufferedSegment(
+                                    loadedUs, segmentAllocations.toArray(new Allocation[0])));
+                    nextSegmentIndex++;
+                    loading = false;
+                }
+            } else if (nextSegmentIndex < segmentCount) {
+                idleNetworkUs += TICK_US;
+            }
+            peakBytesAllocated = max(peakBytesAllocated, allocator.getTotalBytesAllocated());
+
+            // Playback.
+            bufferedDurationUs = loadedUs - positionUs;
+            boolean fullyLoaded = nextSegmentIndex == segmentCount;
+            if (state == STATE_STARTING || state == STATE_REBUFFERING) {
+                boolean rebuffering = state == STATE_REBUFFERING;
+                if ((fullyLoaded && bufferedDurationUs > 0)
+                        || loadControl.shouldStartPlayback(
+                                bufferedDurationUs, 1f, rebuffering, C.TIME_UNSET)) {
+                    if (startupDelayUs == C.TIME_UNSET) {
+                        startupDelayUs = nowUs;
+                    }
+                    state = STATE_PLAYING;
+                } else if (rebuffering) {
+                    rebufferTimeUs += TICK_US;
+                }
+            } else {
+                long playedUs = min(TICK_US, bufferedDurationUs);
+                positionUs += playedUs;
+                playingTimeUs += playedUs;
+                while (!bufferedSegments.isEmpty() && bufferedSegments.peek().endUs <= positionUs) {
+                    for (Allocation allocation : bufferedSegments.poll().allocations) {
+                        allocator.release(allocation);
+                    }
+                }
+                if (positionUs >= mediaDurationUs) {
+                    state = STATE_ENDED;
+                } else if (loadedUs - positionUs <= 0) {
+                    state = STATE_REBUFFERING;
+                    rebufferCount++;
+                }
+            }
+            nowUs += TICK_US;
+        }
+        loadControl.onReleased();
+
+        return new SimulationResult(
+                startupDelayUs == C.TIME_UNSET ? nowUs / 1000 : startupDelayUs / 1000,
+                rebufferCount,
+                rebufferTimeUs / 1000,
+                (double) rebufferTimeUs / max(1, rebufferTimeUs + playingTimeUs),
+                peakBytesAllocated,
+                idleNetworkUs / 1000);
+    }
+
+    /**
+     * Sweeps a default parameter grid over the trace files given as arguments and prints one CSV
+     * line per parameter set, averaged over the traces.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<BandwidthTrace> traces = new ArrayList<>();
+        for (String arg : args) {
+            traces.add(BandwidthTrace.fromFile(new File(arg)));
+        }
+        if (traces.isEmpty()) {
+            traces.add(BandwidthTrace.constant("constant-3mbps", 3_000_000));
+        }
+        MediaModel media =
+                new MediaModel(
+                        /* bitrate= */ 2_000_000,
+                        /* segmentDurationMs= */ 4000,
+                        /* durationMs= */ 600_000,
+                        /* requestLatencyMs= */ 100);
+        int[] minBufferMs = {8000, 16000, 24000};
+        int[] maxBufferMs = {16000, 32000, 50000};
+        int[] bufferForPlaybackMs = {500, 1000, 2500};
+        int[] bufferForPlaybackAfterRebufferMs = {2000, 5000, 8000};
+        List<SimulationParameters> grid = new ArrayList<>();
+        grid.addAll(
+                SimulationParameters.grid(
+                        minBufferMs,
+                        maxBufferMs,
+                        bufferForPlaybackMs,
+                        bufferForPlaybackAfterRebufferMs,
+                        "conservative",
+                        ConservativeBufferPolicy::new));
+        grid.addAll(
+                SimulationParameters.grid(
+                        minBufferMs,
+                        maxBufferMs,
+                        bufferForPlaybackMs,
+                        bufferForPlaybackAfterRebufferMs,
+                        "throughput-scaled",
+                        ThroughputScaledBufferPolicy::new));
+
+        System.out.println(
+                "policy,minBufferMs,maxBufferMs,bufferForPlaybackMs,bufferForPlaybackAfterRebufferMs,"
+                        + "targetBufferBytes,bitrateBasedTargetBufferBytes,predictiveStart,"
+                        + SimulationResult.CSV_HEADER);
+        for (ParameterSweep.Result result :
+                ParameterSweep.run(grid, traces, media, Runtime.getRuntime().availableProcessors())) {
+            System.out.println(result.parameters + "," + result.average);
+        }
+    }
+
+    /** A video renderer that only reports its track type; the simulation never renders. */
+    private static final class SimulatedVideoRenderer extends BaseRenderer {
+
+        public SimulatedVideoRenderer() {
+            super(C.TRACK_TYPE_VIDEO);
+        }
+
+        @Override
+        public String getName() {
+            return "SimulatedVideoRenderer";
+        }
+
+        @Override
+        public void render(long positionUs, long elapsedRealtimeUs) {}
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public boolean isEnded() {
+            return false;
+        }
+
+        @Override
+        public @Capabilities int supportsFormat(Format format) {
+            return RendererCapabilities.create(C.FORMAT_HANDLED);
+        }
+    }
+
+    private static final class BufferedSegment {
+
+        public final long endUs;
+        public final Allocation[] allocations;
+
+        public BufferedSegment(long endUs, Allocation[] allocations) {
+            this.endUs = endUs;
+            this.allocations = allocations;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.exoplayercompose.player.simulation
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Sanity checks for [LoadControlSimulator], run on the JVM against a real CustomLoadControl.
+ */
+class LoadControlSimulatorTest {
+
+    private val media = MediaModel(2_000_000, 4000, 120_000, 100)
+
+    @Test
+    fun fastNetwork_startsQuicklyWithoutRebuffering() {
+        val result = LoadControlSimulator.run(
+            SimulationParameters.defaults(),
+            BandwidthTrace.constant("fast", 20_000_000),
+            media
+        )
+        assertEquals(0, result.rebufferCount)
+        assertTrue(result.startupDelayMs < 2000)
+        assertTrue(result.idleNetworkMs > 0)
+    }
+
+    @Test
+    fun networkSlowerThanMedia_rebuffers() {
+        val result = LoadControlSimulator.run(
+            SimulationParameters.defaults(),
+            BandwidthTrace.constant("slow", 1_000_000),
+            media
+        )
+        assertTrue(result.rebufferCount > 0)
+        assertTrue(result.rebufferRatio > 0)
+    }
+
+    @Test
+    fun predictiveStart_neverStartsLaterThanFixedThreshold() {
+        val trace = BandwidthTrace.constant("moderate", 4_000_000)
+        val fixed = LoadControlSimulator.run(SimulationParameters.defaults(), trace, media)
+        val predictive = LoadControlSimulator.run(
+            SimulationParameters.defaults().withPredictiveStart(true),
+            trace,
+            media
+        )
+        assertTrue(predictive.startupDelayMs <= fixed.startupDelayMs)
+    }
+
+    @Test
+    fun sweep_returnsOneResultPerParameterSetAndTrace() {
+        val grid = SimulationParameters.grid(
+            intArrayOf(8000, 16000),
+            intArrayOf(16000, 32000),
+            intArrayOf(1000),
+            intArrayOf(2000),
+            "defaults"
+        ) { SimulationParameters.defaults().createBufferPolicy() }
+        val traces = listOf(
+            BandwidthTrace.constant("fast", 20_000_000),
+            BandwidthTrace.of("fluctuating", longArrayOf(5000, 5000), longArrayOf(6_000_000, 1_500_000))
+        )
+
+        val results = ParameterSweep.run(grid, traces, media, 2)
+
+        assertEquals(grid.size, results.size)
+        results.forEach { assertEquals(traces.size, it.perTrace.size) }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.exoplayercompose.player.simulation;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+/** A constant-bitrate segmented media, as loaded by the simulated player. */
+public final class MediaModel {
+
+    /** The media bitrate, in bits per second. */
+    public final long bitrate;
+    /** The duration of each segment, in milliseconds. */
+    public final long segmentDurationMs;
+    /** The total media duration, in milliseconds. */
+    public final long durationMs;
+    /** The time between a segment request and its first byte, in milliseconds. */
+    public final long requestLatencyMs;
+
+    public MediaModel(long bitrate, long segmentDurationMs, long durationMs, long requestLatencyMs) {
+        this.bitrate = bitrate;
+        this.segmentDurationMs = segmentDurationMs;
+        this.durationMs = durationMs;
+        this.requestLatencyMs = requestLatencyMs;
+    }
+
+    public int getSegmentCount() {
+        return (int) ((durationMs + segmentDurationMs - 1) / segmentDurationMs);
+    }
+
+    /** Returns the duration of the given segment, in microseconds. The last one may be shorter. */
+    public long getSegmentDurationUs(int segmentIndex) {
+        long startMs = segmentIndex * segmentDurationMs;
+        return (Math.min(durationMs, startMs + segmentDurationMs) - startMs) * 1000;
+    }
+
+    /** Returns the size of the given segment, in bytes. */
+    public long getSegmentBytes(int segmentIndex) {
+        return bitrate * getSegmentDurationUs(segmentIndex) / 8_000_000;
+    }
+
+    /** Returns the video format of the media, as selected by the simulated player. */
+    public Format createFormat() {
+        int formatBitrate = (int) Math.min(Integer.MAX_VALUE, bitrate);
+        return new Format.Builder()
+                .setSampleMimeType(MimeTypes.VIDEO_H264)
+                .setAverageBitrate(formatBitrate)
+                .setPeakBitrate(formatBitrate)
+                .build();
+    }
+}
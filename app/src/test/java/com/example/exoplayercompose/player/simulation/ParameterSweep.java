@@ -0,0 +1,80 @@
+package com.example.exoplayercompose.player.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Runs {@link LoadControlSimulator} over a grid of parameter sets in parallel. */
+public final class ParameterSweep {
+
+    /** The results of one parameter set over all traces. */
+    public static final class Result {
+
+        public final SimulationParameters parameters;
+        /** The result for each trace, in the order the traces were given. */
+        public final List<SimulationResult> perTrace;
+        public final SimulationResult.Average average;
+
+        public Result(SimulationParameters parameters, List<SimulationResult> perTrace) {
+            this.parameters = parameters;
+            this.perTrace = perTrace;
+            this.average = SimulationResult.average(perTrace);
+        }
+    }
+
+    private ParameterSweep() {}
+
+    /**
+     * Simulates every parameter set over every trace.
+     *
+     * @param grid The parameter sets.
+     * @param traces The bandwidth traces.
+     * @param media The simulated media.
+     * @param parallelism The number of simulations to run at the same time.
+     * @return One {@link Result} per parameter set, in the order of {@code grid}.
+     */
+    public static List<Result> run(
+            List<SimulationParameters> grid,
+            List<BandwidthTrace> traces,
+            MediaModel media,
+            int parallelism)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<List<Future<SimulationResult>>> futures = new ArrayList<>();
+            for (SimulationParameters parameters : grid) {
+                List<Future<SimulationResult>> parameterFutures = new ArrayList<>();
+                for (BandwidthTrace trace : traces) {
+                    Callable<SimulationResult> simulation =
+                            () -> LoadControlSimulator.run(parameters, trace, media);
+                    parameterFutures.add(executor.submit(simulation));
+                }
+                futures.add(parameterFutures);
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < grid.size(); i++) {
+                List<SimulationResult> perTrace = new ArrayList<>();
+                for (Future<SimulationResult> future : futures.get(i)) {
+                    perTrace.add(getUnchecked(future));
+                }
+                results.add(new Result(grid.get(i), perTrace));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SimulationResult getUnchecked(Future<SimulationResult> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Simulation failed", e.getCause());
+        }
+    }
+}
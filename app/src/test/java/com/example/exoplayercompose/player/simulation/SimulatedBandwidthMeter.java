@@ -0,0 +1,55 @@
+package com.example.exoplayercompose.player.simulation;
+
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+/**
+ * A {@link BandwidthMeter} fed by the simulator with one sample per downloaded segment, smoothed
+ * exponentially.
+ */
+/* package */ final class SimulatedBandwidthMeter implements BandwidthMeter {
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private long bitrateEstimate;
+
+    /**
+     * Adds a transfer sample.
+     *
+     * @param bytes The number of bytes transferred.
+     * @param elapsedUs The time the transfer took, including the request latency.
+     */
+    public void onTransfer(long bytes, long elapsedUs) {
+        if (elapsedUs <= 0) {
+            return;
+        }
+        long bitrate = bytes * 8_000_000 / elapsedUs;
+        bitrateEstimate =
+                bitrateEstimate == 0
+                        ? bitrate
+                        : (long) (bitrateEstimate + SMOOTHING_FACTOR * (bitrate - bitrateEstimate));
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        return bitrateEstimate;
+    }
+
+    @Nullable
+    @Override
+    public TransferListener getTransferListener() {
+        return null;
+    }
+
+    @Override
+    public void addEventListener(Handler eventHandler, EventListener eventListener) {
+        // Do nothing.
+    }
+
+    @Override
+    public void removeEventListener(EventListener eventListener) {
+        // Do nothing.
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.exoplayercompose.player.simulation;
+
+import com.example.exoplayercompose.player.BufferPolicy;
+import com.example.exoplayercompose.player.ConservativeBufferPolicy;
+import com.example.exoplayercompose.player.CustomLoadControl;
+import com.google.android.exoplayer2.C;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/** A set of {@link CustomLoadControl} parameters to simulate. */
+public final class SimulationParameters {
+
+    public final int minBufferMs;
+    public final int maxBufferMs;
+    public final int bufferForPlaybackMs;
+    public final int bufferForPlaybackAfterRebufferMs;
+    /**
+     * The target buffer size, or {@link C#LENGTH_UNSET} to let {@link CustomLoadControl} derive it
+     * from the selected track.
+     */
+    public final int targetBufferBytes;
+    /** Whether the target buffer size is derived from the bitrate of the selected track. */
+    public final boolean bitrateBasedTargetBufferBytes;
+    /** Whether the predictive start is enabled, with its default settings. */
+    public final boolean predictiveStart;
+    public final String bufferPolicyName;
+    private final Supplier<BufferPolicy> bufferPolicyFactory;
+
+    public SimulationParameters(
+            int minBufferMs,
+            int maxBufferMs,
+            int bufferForPlaybackMs,
+            int bufferForPlaybackAfterRebufferMs,
+            int targetBufferBytes,
+            boolean bitrateBasedTargetBufferBytes,
+            boolean predictiveStart,
+            String bufferPolicyName,
+            Supplier<BufferPolicy> bufferPolicyFactory) {
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.targetBufferBytes = targetBufferBytes;
+        this.bitrateBasedTargetBufferBytes = bitrateBasedTargetBufferBytes;
+        this.predictiveStart = predictiveStart;
+        this.bufferPolicyName = bufferPolicyName;
+        this.bufferPolicyFactory = bufferPolicyFactory;
+    }
+
+    /** Returns the parameters of a {@link CustomLoadControl.Builder} with its defaults. */
+    public static SimulationParameters defaults() {
+        return new SimulationParameters(
+                CustomLoadControl.DEFAULT_MIN_BUFFER_MS,
+                CustomLoadControl.DEFAULT_MAX_BUFFER_MS,
+                CustomLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                CustomLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+                C.LENGTH_UNSET,
+                /* bitrateBasedTargetBufferBytes= */ false,
+                /* predictiveStart= */ false,
+                "conservative",
+                ConservativeBufferPolicy::new);
+    }
+
+    /**
+     * Returns every valid combination of the given durations, using {@code bufferPolicyFactory} for
+     * all of them. Combinations that {@link CustomLoadControl.Builder#setBufferDurationsMs} would
+     * reject are skipped.
+     */
+    public static List<SimulationParameters> grid(
+            int[] minBufferMs,
+            int[] maxBufferMs,
+            int[] bufferForPlaybackMs,
+            int[] bufferForPlaybackAfterRebufferMs,
+            String bufferPolicyName,
+            Supplier<BufferPolicy> bufferPolicyFactory) {
+        List<SimulationParameters> grid = new ArrayList<>();
+        for (int min : minBufferMs) {
+            for (int max : maxBufferMs) {
+                for (int forPlayback : bufferForPlaybackMs) {
+                    for (int afterRebuffer : bufferForPlaybackAfterRebufferMs) {
+                        if (max < min || min < forPlayback || min < afterRebuffer) {
+                            continue;
+                        }
+                        grid.add(
+                                new SimulationParameters(
+                                        min,
+                                        max,
+                                        forPlayback,
+                                        afterRebuffer,
+                                        C.LENGTH_UNSET,
+                                        /* bitrateBasedTargetBufferBytes= */ false,
+                                        /* predictiveStart= */ false,
+                                        bufferPolicyName,
+                                        bufferPolicyFactory));
+                    }
+                }
+            }
+        }
+        return grid;
+    }
+
+    /** Creates a new {@link BufferPolicy} instance for one simulation run. */
+    public BufferPolicy createBufferPolicy() {
+        return bufferPolicyFactory.get();
+    }
+
+    /** Returns a copy of these parameters with the bitrate-based target buffer size set. */
+    public SimulationParameters withBitrateBasedTargetBufferBytes(
+            boolean bitrateBasedTargetBufferBytes) {
+        return new SimulationParameters(
+                minBufferMs,
+                maxBufferMs,
+                bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs,
+                targetBufferBytes,
+                bitrateBasedTargetBufferBytes,
+                predictiveStart,
+                bufferPolicyName,
+                bufferPolicyFactory);
+    }
+
+    /** Returns a copy of these parameters with the predictive start set. */
+    public SimulationParameters withPredictiveStart(boolean predictiveStart) {
+        return new SimulationParameters(
+                minBufferMs,
+                maxBufferMs,
+                bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs,
+                targetBufferBytes,
+                bitrateBasedTargetBufferBytes,
+                predictiveStart,
+                bufferPolicyName,
+                bufferPolicyFactory);
+    }
+
+    @Override
+    public String toString() {
+        return bufferPolicyName
+                + ","
+                + minBufferMs
+                + ","
+                + maxBufferMs
+                + ","
+                + bufferForPlaybackMs
+                + ","
+                + bufferForPlaybackAfterRebufferMs
+                + ","
+                + targetBufferBytes
+                + ","
+                + bitrateBasedTargetBufferBytes
+                + ","
+                + predictiveStart;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.exoplayercompose.player.simulation;
+
+import java.util.List;
+
+/** The playback metrics of one simulation run. */
+public final class SimulationResult {
+
+    /** The CSV header matching {@link #toString()}. */
+    public static final String CSV_HEADER =
+            "startupDelayMs,rebufferCount,rebufferTimeMs,rebufferRatio,peakBytesAllocated,idleNetworkMs";
+
+    public final long startupDelayMs;
+    public final int rebufferCount;
+    public final long rebufferTimeMs;
+    /** The rebuffering time divided by the rebuffering plus playing time. */
+    public final double rebufferRatio;
+    public final long peakBytesAllocated;
+    /** The time the network was idle while there was still media left to load. */
+    public final long idleNetworkMs;
+
+    public SimulationResult(
+            long startupDelayMs,
+            int rebufferCount,
+            long rebufferTimeMs,
+            double rebufferRatio,
+            long peakBytesAllocated,
+            long idleNetworkMs) {
+        this.startupDelayMs = startupDelayMs;
+        this.rebufferCount = rebufferCount;
+        this.rebufferTimeMs = rebufferTimeMs;
+        this.rebufferRatio = rebufferRatio;
+        this.peakBytesAllocated = peakBytesAllocated;
+        this.idleNetworkMs = idleNetworkMs;
+    }
+
+    /** Returns the mean of each metric over the given results. */
+    public static Average average(List<SimulationResult> results) {
+        int count = results.size();
+        long startupDelayMs = 0;
+        long rebufferCount = 0;
+        long rebufferTimeMs = 0;
+        double rebufferRatio = 0;
+        long peakBytesAllocated = 0;
+        long idleNetworkMs = 0;
+        for (SimulationResult result : results) {
+            startupDelayMs += result.startupDelayMs;
+            rebufferCount += result.rebufferCount;
+            rebufferTimeMs += result.rebufferTimeMs;
+            rebufferRatio += result.rebufferRatio;
+            peakBytesAllocated += result.peakBytesAllocated;
+            idleNetworkMs += result.idleNetworkMs;
+        }
+        return new Average(
+                startupDelayMs / count,
+                (double) rebufferCount / count,
+                rebufferTimeMs / count,
+                rebufferRatio / count,
+                peakBytesAllocated / count,
+                idleNetworkMs / count);
+    }
+
+    @Override
+    public String toString() {
+        return startupDelayMs
+                + ","
+                + rebufferCount
+                + ","
+                + rebufferTimeMs
+                + ","
+                + rebufferRatio
+                + ","
+                + peakBytesAllocated
+                + ","
+                + idleNetworkMs;
+    }
+
+    /** The mean of each metric over several simulation runs, as returned by {@link #average}. */
+    public static final class Average {
+
+        public final long startupDelayMs;
+        /** The mean number of rebuffers per run. */
+        public final double meanRebufferCount;
+        public final long rebufferTimeMs;
+        public final double rebufferRatio;
+        public final long peakBytesAllocated;
+        public final long idleNetworkMs;
+
+        public Average(
+                long startupDelayMs,
+                double meanRebufferCount,
+                long rebufferTimeMs,
+                double rebufferRatio,
+                long peakBytesAllocated,
+                long idleNetworkMs) {
+            this.startupDelayMs = startupDelayMs;
+            this.meanRebufferCount = meanRebufferCount;
+            this.rebufferTimeMs = rebufferTimeMs;
+            this.rebufferRatio = rebufferRatio;
+            this.peakBytesAllocated = peakBytesAllocated;
+            this.idleNetworkMs = idleNetworkMs;
+        }
+
+        /** Returns the averages as a CSV line matching {@link #CSV_HEADER}. */
+        @Override
+        public String toString() {
+            return startupDelayMs
+                    + ","
+                    + meanRebufferCount
+                    + ","
+                    + rebufferTimeMs
+                    + ","
+                    + rebufferRatio
+                    + ","
+                    + peakBytesAllocated
+                    + ","
+                    + idleNetworkMs;
+        }
+    }
+}